@@ -0,0 +1,45 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.util.Map;
+
+import org.openjdk.jmh.infra.Blackhole;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+
+/**
+ * Sink consuming the entities into a JMH {@link Blackhole}
+ *
+ * @author jsimomaa
+ *
+ */
+public class BlackholeSink implements Sink {
+
+    private Blackhole blackhole;
+    private long count = 0;
+
+    public void setBlackhole(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void initialize(Map<String, Object> metaData) {
+    }
+
+    @Override
+    public void process(EntityContainer entityContainer) {
+        count++;
+        blackhole.consume(entityContainer);
+    }
+
+    @Override
+    public void complete() {
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,80 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.DirectPosition2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import me.jsimomaa.osmosis.tile.ArrayTile;
+import me.jsimomaa.osmosis.utils.TM35Utils;
+
+/**
+ * Sampling a decoded map sheet through {@link GridCoverage2D#evaluate} versus
+ * the {@link ArrayTile} the sheets are converted into
+ *
+ * @author jsimomaa
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CoverageBenchmark {
+
+    private static final int POINTS = 1024;
+
+    private GridCoverage2D coverage;
+    private ArrayTile tile;
+    private double[] xy;
+    private float[] value;
+
+    @Setup
+    public void setUp() throws Exception {
+        int sheet = Fixtures.SHEETS[0];
+        coverage = Fixtures.coverage(sheet, Fixtures.epsg3067());
+        tile = Fixtures.tile(sheet);
+        value = new float[1];
+
+        Random random = new Random(42);
+        xy = new double[2 * POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xy[2 * i] = TM35Utils.minE(sheet) + random.nextDouble() * Fixtures.SCALE.getSheetWidth();
+            xy[2 * i + 1] = TM35Utils.minN(sheet) + random.nextDouble() * Fixtures.SCALE.getSheetHeight();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        coverage.dispose(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void coverageEvaluate(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++)
+            blackhole.consume(coverage.evaluate(new DirectPosition2D(xy[2 * i], xy[2 * i + 1]), value)[0]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void tileSample(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++)
+            blackhole.consume(tile.sample(xy[2 * i], xy[2 * i + 1]));
+    }
+}
@@ -0,0 +1,67 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+import me.jsimomaa.osmosis.NodeEnricher;
+
+/**
+ * Height tag rewrite of a node. The z-tag added to the nodes on the first
+ * invocation is replaced in place on the following ones. Run with
+ * <code>-prof gc</code> to see the allocations per node.
+ *
+ * @author jsimomaa
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnrichBenchmark {
+
+    private static final int NODES = 1024;
+
+    @Param({ "0", "4" })
+    public int tagCount;
+
+    @Param({ "-1", "1" })
+    public int heightDecimals;
+
+    private NodeEnricher enricher;
+    private Node[] nodes;
+    private float[] heights;
+
+    @Setup
+    public void setUp() {
+        enricher = new NodeEnricher(new String[] { "z", "height" }, true, heightDecimals);
+        double[] xy = Fixtures.points(NODES, 0.001, 42);
+        // The rewrite does not care about the datum
+        nodes = Fixtures.nodes(xy, tagCount);
+        heights = new float[NODES];
+        for (int i = 0; i < NODES; i++)
+            heights[i] = Fixtures.elevation(xy[2 * i], xy[2 * i + 1]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public void enrich(Blackhole blackhole) {
+        for (int i = 0; i < NODES; i++)
+            blackhole.consume(enricher.enrich(nodes[i], heights[i]));
+    }
+}
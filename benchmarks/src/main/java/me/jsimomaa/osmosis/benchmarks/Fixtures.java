@@ -0,0 +1,263 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.data.PrjFileReader;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.geometry.GeneralEnvelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import org.openstreetmap.osmosis.core.domain.v0_6.CommonEntityData;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+import me.jsimomaa.osmosis.tile.ArrayTile;
+import me.jsimomaa.osmosis.utils.TM35Utils;
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+/**
+ * Synthetic map sheets and node streams for the benchmarks so that they run
+ * without the NLS file service. The sheets cover a 2x2 block of 1:10 000 map
+ * sheets at the 2 m resolution of the NLS elevation model.
+ *
+ * @author jsimomaa
+ *
+ */
+public class Fixtures {
+
+    public static final TM35Scale SCALE = TM35Scale.SCALE_10000;
+    public static final double CELL_SIZE = 2.0;
+
+    // South-west corner of the block, aligned to the TM35 grid
+    public static final double MIN_E = 386000;
+    public static final double MIN_N = 6672000;
+    public static final double MAX_E = MIN_E + 2 * 6000;
+    public static final double MAX_N = MIN_N + 2 * 6000;
+
+    public static final int[] SHEETS = TM35Utils.sheetsIntersecting(MIN_E, MIN_N, MAX_E - 1, MAX_N - 1, SCALE);
+
+    // Mean distance between consecutive nodes of a way in meters
+    private static final double STEP = 15;
+
+    /**
+     * Smooth terrain with patches without data
+     *
+     * @param x
+     *            easting in EPSG:3067
+     * @param y
+     *            northing in EPSG:3067
+     * @return elevation or {@link Float#NaN} for no data
+     */
+    public static float elevation(double x, double y) {
+        int patchX = (int) (x / 500);
+        int patchY = (int) (y / 500);
+        if ((patchX * 31 + patchY * 17) % 97 == 0)
+            return Float.NaN;
+        return (float) (60 + 25 * Math.sin(x / 700) * Math.cos(y / 900) + 3 * Math.sin(x / 37 + y / 53));
+    }
+
+    /**
+     * @param sheetId
+     *            one of {@link #SHEETS}
+     * @return elevation grid of the sheet
+     */
+    public static ArrayTile tile(int sheetId) {
+        int size = (int) (SCALE.getSheetWidth() / CELL_SIZE);
+        double originX = TM35Utils.minE(sheetId);
+        double originY = TM35Utils.minN(sheetId) + SCALE.getSheetHeight();
+        float[] data = new float[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++)
+                data[row * size + col] = elevation(originX + (col + 0.5) * CELL_SIZE,
+                        originY - (row + 0.5) * CELL_SIZE);
+        }
+        return new ArrayTile(size, size, originX, originY, CELL_SIZE, CELL_SIZE, data);
+    }
+
+    /**
+     * @param sheetId
+     *            one of {@link #SHEETS}
+     * @param crs
+     *            EPSG:3067
+     * @return in-memory coverage of the sheet
+     */
+    public static GridCoverage2D coverage(int sheetId, CoordinateReferenceSystem crs) {
+        ArrayTile tile = tile(sheetId);
+        float[][] matrix = new float[tile.getHeight()][tile.getWidth()];
+        for (int row = 0; row < tile.getHeight(); row++) {
+            for (int col = 0; col < tile.getWidth(); col++)
+                matrix[row][col] = tile.get(col, row);
+        }
+        double minE = TM35Utils.minE(sheetId);
+        double minN = TM35Utils.minN(sheetId);
+        GeneralEnvelope envelope = new GeneralEnvelope(new double[] { minE, minN },
+                new double[] { minE + SCALE.getSheetWidth(), minN + SCALE.getSheetHeight() });
+        envelope.setCoordinateReferenceSystem(crs);
+        return new GridCoverageFactory().create(TM35Utils.sheetName(sheetId), matrix, envelope);
+    }
+
+    /**
+     * Writes the sheets as GeoTIFFs named like the ones of the NLS file
+     * service
+     *
+     * @param directory
+     *            target directory
+     * @param crs
+     *            EPSG:3067
+     * @throws IOException
+     */
+    public static void writeGeoTiffs(Path directory, CoordinateReferenceSystem crs) throws IOException {
+        for (int sheet : SHEETS) {
+            Path tiff = directory.resolve(TM35Utils.sheetName(sheet) + ".tif");
+            GridCoverage2D coverage = coverage(sheet, crs);
+            GeoTiffWriter writer = new GeoTiffWriter(tiff.toFile());
+            try {
+                writer.write(coverage, null);
+            } finally {
+                writer.dispose();
+                coverage.dispose(true);
+            }
+        }
+    }
+
+    /**
+     * Copies the EPSG:3067 <code>.prj</code>-file shipped with the plugin
+     * into the directory
+     *
+     * @param directory
+     *            target directory
+     * @return location of the copy
+     * @throws IOException
+     */
+    public static Path copyPrj(Path directory) throws IOException {
+        Path prj = directory.resolve("EPSG3067.prj");
+        try (InputStream in = Fixtures.class.getResourceAsStream("/EPSG3067.prj")) {
+            Files.copy(in, prj, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return prj;
+    }
+
+    /**
+     * @return EPSG:3067 as shipped with the plugin
+     * @throws IOException
+     */
+    public static CoordinateReferenceSystem epsg3067() throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/EPSG3067.prj")) {
+            PrjFileReader reader = new PrjFileReader(Channels.newChannel(in));
+            try {
+                return reader.getCoordinateReferenceSystem();
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Generates points within the sheets. Points follow each other like the
+     * nodes of ways drawn in a single editing session and jump to a random
+     * location of the block with the given probability.
+     *
+     * @param count
+     *            amount of points
+     * @param jumpProbability
+     *            0 for a single random walk, 1 for uniformly scattered points
+     * @param seed
+     *            of the generator
+     * @return interleaved easting and northing in EPSG:3067
+     */
+    public static double[] points(int count, double jumpProbability, long seed) {
+        Random random = new Random(seed);
+        double[] xy = new double[2 * count];
+        double x = MIN_E + random.nextDouble() * (MAX_E - MIN_E);
+        double y = MIN_N + random.nextDouble() * (MAX_N - MIN_N);
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < count; i++) {
+            if (random.nextDouble() < jumpProbability) {
+                x = MIN_E + random.nextDouble() * (MAX_E - MIN_E);
+                y = MIN_N + random.nextDouble() * (MAX_N - MIN_N);
+            } else {
+                heading += random.nextGaussian() * 0.3;
+                double step = STEP * (0.5 + random.nextDouble());
+                x += step * Math.cos(heading);
+                y += step * Math.sin(heading);
+                // Turn back at the edges of the block
+                if (x < MIN_E || x >= MAX_E || y < MIN_N || y >= MAX_N) {
+                    x = Math.min(Math.max(x, MIN_E), MAX_E - 1);
+                    y = Math.min(Math.max(y, MIN_N), MAX_N - 1);
+                    heading += Math.PI;
+                }
+            }
+            xy[2 * i] = x;
+            xy[2 * i + 1] = y;
+        }
+        return xy;
+    }
+
+    /**
+     * @param xy
+     *            interleaved easting and northing in EPSG:3067
+     * @param toWgs84
+     *            transform from EPSG:3067 to WGS84
+     * @return interleaved longitude and latitude
+     * @throws TransformException
+     */
+    public static double[] toLonLat(double[] xy, MathTransform toWgs84) throws TransformException {
+        double[] lonLat = new double[xy.length];
+        toWgs84.transform(xy, 0, lonLat, 0, xy.length / 2);
+        return lonLat;
+    }
+
+    /**
+     * @param lonLat
+     *            interleaved longitude and latitude
+     * @param tagCount
+     *            amount of tags on each node
+     * @return nodes at the given locations
+     */
+    public static Node[] nodes(double[] lonLat, int tagCount) {
+        Date timestamp = new Date(1500000000000L);
+        Node[] nodes = new Node[lonLat.length / 2];
+        for (int i = 0; i < nodes.length; i++) {
+            Collection<Tag> tags = new ArrayList<>(tagCount + 1);
+            for (int t = 0; t < tagCount; t++)
+                tags.add(new Tag("key" + t, "value" + (i % 7)));
+            CommonEntityData ced = new CommonEntityData(i + 1, 1, timestamp, OsmUser.NONE, 1, tags);
+            nodes[i] = new Node(ced, lonLat[2 * i + 1], lonLat[2 * i]);
+        }
+        return nodes;
+    }
+
+    /**
+     * Deletes the directory and everything under it
+     *
+     * @param directory
+     *            to delete
+     * @throws IOException
+     */
+    public static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory))
+            return;
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(files::add);
+        }
+        for (Path file : files)
+            Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,119 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.openstreetmap.osmosis.core.container.v0_6.NodeContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+import me.jsimomaa.osmosis.NLSDEMTask;
+import me.jsimomaa.osmosis.source.LocalDirectorySource;
+import me.jsimomaa.osmosis.tile.Interpolation;
+
+/**
+ * End-to-end {@link NLSDEMTask#process(NodeContainer)} over a synthetic node
+ * stream. The map sheets are GeoTIFFs generated into a temporary directory
+ * and served by a {@link LocalDirectorySource}. The sheets are converted into
+ * raw tiles during the warmup so the measurement covers the steady state of
+ * a run with the sheets already downloaded.
+ *
+ * @author jsimomaa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PipelineBenchmark {
+
+    private static final int NODES = 200000;
+
+    /**
+     * Probability of a node to jump to a random location instead of following
+     * the previous one
+     */
+    @Param({ "0.0005", "1" })
+    public double jumpProbability;
+
+    @Param({ "1", "4" })
+    public int workers;
+
+    @Param({ "NEAREST", "BICUBIC" })
+    public String interpolation;
+
+    private Path directory;
+    private Path prjFile;
+    private NodeContainer[] containers;
+    private BlackholeSink sink;
+    private NLSDEMTask task;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        directory = Files.createTempDirectory("nls-dem-bench");
+        prjFile = Fixtures.copyPrj(directory);
+        CoordinateReferenceSystem crs = Fixtures.epsg3067();
+        Fixtures.writeGeoTiffs(directory, crs);
+
+        double[] lonLat = Fixtures.toLonLat(Fixtures.points(NODES, jumpProbability, 42),
+                CRS.findMathTransform(DefaultGeographicCRS.WGS84, crs).inverse());
+        Node[] nodes = Fixtures.nodes(lonLat, 0);
+        containers = new NodeContainer[NODES];
+        for (int i = 0; i < NODES; i++)
+            containers[i] = new NodeContainer(nodes[i]);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpTask() throws Exception {
+        sink = new BlackholeSink();
+        task = new NLSDEMTask(new LocalDirectorySource(directory), prjFile.toUri());
+        // The z-tag added on the first invocation is replaced on the
+        // following ones
+        task.setHeightTags(new String[] { "z" });
+        task.setWorkers(workers);
+        task.setInterpolation(Interpolation.parse(interpolation));
+        task.setSink(sink);
+        task.initialize(Collections.<String, Object> emptyMap());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public long process(Blackhole blackhole) {
+        sink.setBlackhole(blackhole);
+        for (NodeContainer container : containers)
+            task.process(container);
+        task.complete();
+        return sink.getCount();
+    }
+
+    @TearDown(Level.Invocation)
+    public void releaseTask() {
+        task.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws Exception {
+        Fixtures.delete(directory);
+    }
+}
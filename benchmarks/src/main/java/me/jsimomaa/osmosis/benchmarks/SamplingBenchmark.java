@@ -0,0 +1,105 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import me.jsimomaa.osmosis.tile.ElevationTile;
+import me.jsimomaa.osmosis.tile.Interpolation;
+import me.jsimomaa.osmosis.tile.RawTiles;
+import me.jsimomaa.osmosis.tile.TileEncoding;
+import me.jsimomaa.osmosis.tile.TileSampler;
+import me.jsimomaa.osmosis.utils.TM35Utils;
+
+/**
+ * Elevation sampling of scattered points with each interpolation method from
+ * heap and memory-mapped tiles in each cell encoding. Points near the edges of a sheet read the
+ * neighbouring sheets.
+ *
+ * @author jsimomaa
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SamplingBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param({ "NEAREST", "BILINEAR", "BICUBIC" })
+    public String interpolation;
+
+    @Param({ "array", "mapped" })
+    public String storage;
+
+    @Param({ "FLOAT32", "INT16", "PACKED" })
+    public String encoding;
+
+    private Path directory;
+    private final Map<Integer, ElevationTile> tiles = new HashMap<>();
+    private TileSampler sampler;
+    private double[] xy;
+    private ElevationTile[] pointTiles;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("nls-dem-bench");
+        for (int sheet : Fixtures.SHEETS) {
+            ElevationTile tile = Fixtures.tile(sheet);
+            TileEncoding tileEncoding = TileEncoding.parse(encoding);
+            if ("mapped".equals(storage)) {
+                Path raw = directory.resolve(TM35Utils.sheetName(sheet) + RawTiles.SUFFIX);
+                RawTiles.write(tile, raw, tileEncoding);
+                tile.release();
+                tile = RawTiles.map(raw);
+            } else {
+                tile = RawTiles.encode(tile, tileEncoding);
+            }
+            tiles.put(sheet, tile);
+        }
+        sampler = new TileSampler(Interpolation.parse(interpolation), Fixtures.SCALE, sheet -> {
+            ElevationTile tile = tiles.get(sheet);
+            return tile != null && tile.retain() ? tile : null;
+        });
+
+        xy = Fixtures.points(POINTS, 1, 42);
+        pointTiles = new ElevationTile[POINTS];
+        for (int i = 0; i < POINTS; i++)
+            pointTiles[i] = tiles.get(TM35Utils.sheetId(xy[2 * i], xy[2 * i + 1], Fixtures.SCALE));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (ElevationTile tile : tiles.values())
+            tile.release();
+        tiles.clear();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void sample(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++)
+            blackhole.consume(sampler.sample(pointTiles[i], xy[2 * i], xy[2 * i + 1]));
+    }
+}
@@ -0,0 +1,64 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import me.jsimomaa.osmosis.utils.TM35Utils;
+
+/**
+ * Map sheet lookup of a point through utm_karttalehti versus the arithmetic
+ * sheet ids
+ *
+ * @author jsimomaa
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SheetBenchmark {
+
+    private static final int POINTS = 1024;
+
+    private double[] xy;
+
+    @Setup
+    public void setUp() {
+        xy = Fixtures.points(POINTS, 1, 42);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void reverseGeocode(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++)
+            blackhole.consume(TM35Utils.reverseGeocode(xy[2 * i], xy[2 * i + 1], Fixtures.SCALE));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void sheetId(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++)
+            blackhole.consume(TM35Utils.sheetId(xy[2 * i], xy[2 * i + 1], Fixtures.SCALE));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void sheetIdAndName(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++)
+            blackhole.consume(TM35Utils.sheetName(TM35Utils.sheetId(xy[2 * i], xy[2 * i + 1], Fixtures.SCALE)));
+    }
+}
@@ -0,0 +1,71 @@
+package me.jsimomaa.osmosis.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * WGS84 to EPSG:3067 transform of a node, one point at a time versus a batch
+ * of points with a single call
+ *
+ * @author jsimomaa
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    private static final int POINTS = 1024;
+
+    private CoordinateReferenceSystem targetCRS;
+    private MathTransform transform;
+    private double[] lonLat;
+    private double[] batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        targetCRS = Fixtures.epsg3067();
+        transform = CRS.findMathTransform(DefaultGeographicCRS.WGS84, targetCRS);
+        lonLat = Fixtures.toLonLat(Fixtures.points(POINTS, 0.001, 42), transform.inverse());
+        batch = new double[lonLat.length];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void single(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < POINTS; i++) {
+            DirectPosition2D ptDst = new DirectPosition2D(targetCRS);
+            transform.transform(new DirectPosition2D(DefaultGeographicCRS.WGS84, lonLat[2 * i], lonLat[2 * i + 1]),
+                    ptDst);
+            blackhole.consume(ptDst);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] batch() throws Exception {
+        System.arraycopy(lonLat, 0, batch, 0, lonLat.length);
+        transform.transform(batch, 0, batch, 0, POINTS);
+        return batch;
+    }
+}
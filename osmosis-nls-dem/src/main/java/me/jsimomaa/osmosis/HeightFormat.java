@@ -0,0 +1,143 @@
+package me.jsimomaa.osmosis;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+/**
+ * Creates the height tags of the nodes. Heights are written either in the
+ * shortest form that reads back as the same float, or with a fixed amount of
+ * decimals.
+ * <br>
+ * <br>
+ * Nodes mostly share a small set of distinct heights, so the tags of the
+ * heights between {@value #MIN_CACHED_METERS} m and
+ * {@value #MAX_CACHED_METERS} m are created once and shared between the
+ * nodes. With the shortest form only heights that are whole decimetres, as
+ * sampled from quantized tiles, are shared this way. Other heights share the
+ * tags of recently seen heights of exactly the same float value. Safe to use
+ * from several threads at once.
+ *
+ * @author jsimomaa
+ *
+ */
+public class HeightFormat {
+
+    /**
+     * Shortest form that reads back as the same float, see
+     * {@link Float#toString(float)}
+     */
+    public static final int SHORTEST = -1;
+    public static final int MAX_DECIMALS = 6;
+
+    // Heights of the shared tags, Finland with a margin
+    private static final int MIN_CACHED_METERS = -100;
+    private static final int MAX_CACHED_METERS = 2000;
+    private static final int MAX_CACHED_DECIMALS = 2;
+    // Recently seen heights by their float bits, about 1 MB of tags at most
+    private static final int RECENT_BITS = 13;
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[24]);
+
+    private final String key;
+    private final int decimals;
+    // 10^decimals, heights of the shared tags are multiples of 1 / scale
+    private final double scale;
+    private final long minCached;
+    private final AtomicReferenceArray<Tag> cache;
+    private final AtomicReferenceArray<Recent> recent = new AtomicReferenceArray<>(1 << RECENT_BITS);
+
+    /**
+     * @param key
+     *            of the height tags
+     * @param decimals
+     *            amount of decimals from 0 to {@link #MAX_DECIMALS} or
+     *            {@link #SHORTEST}
+     */
+    public HeightFormat(String key, int decimals) {
+        if (decimals != SHORTEST && (decimals < 0 || decimals > MAX_DECIMALS))
+            throw new IllegalArgumentException(
+                    "Height decimals must be between 0 and " + MAX_DECIMALS + "! (" + decimals + ")");
+        this.key = key;
+        this.decimals = decimals;
+        int cachedDecimals = decimals == SHORTEST ? 1 : decimals;
+        this.scale = Math.pow(10, cachedDecimals);
+        this.minCached = (long) (MIN_CACHED_METERS * scale);
+        this.cache = cachedDecimals <= MAX_CACHED_DECIMALS
+                ? new AtomicReferenceArray<>((int) ((MAX_CACHED_METERS - MIN_CACHED_METERS) * scale) + 1)
+                : null;
+    }
+
+    /**
+     * @param height
+     *            of the node, not {@link Float#NaN}
+     * @return height tag, shared with other nodes of the same height if
+     *         possible
+     */
+    public Tag tag(float height) {
+        if (cache != null) {
+            long scaled = Math.round(height * scale);
+            long index = scaled - minCached;
+            if (index >= 0 && index < cache.length() && (decimals != SHORTEST || scaled / 10f == height)) {
+                Tag tag = cache.get((int) index);
+                if (tag == null) {
+                    // Racing threads create equal tags - either one will do
+                    tag = new Tag(key, format(height));
+                    cache.set((int) index, tag);
+                }
+                return tag;
+            }
+        }
+        int bits = Float.floatToRawIntBits(height);
+        int index = (bits * 0x9E3779B9) >>> (32 - RECENT_BITS);
+        Recent entry = recent.get(index);
+        if (entry != null && entry.bits == bits)
+            return entry.tag;
+        Tag tag = new Tag(key, format(height));
+        recent.set(index, new Recent(bits, tag));
+        return tag;
+    }
+
+    /**
+     * @param height
+     *            of the node, not {@link Float#NaN}
+     * @return formatted height, negative zero as zero
+     */
+    public String format(float height) {
+        if (decimals == SHORTEST)
+            // Negative zero shares the tag of zero
+            return Float.toString(height + 0f);
+        double scaled = height * scale;
+        if (Math.abs(scaled) >= 1e15)
+            return Float.toString(height);
+
+        long value = Math.round(scaled);
+        long digits = Math.abs(value);
+        char[] buffer = BUFFER.get();
+        int pos = buffer.length;
+        for (int i = 0; i < decimals; i++) {
+            buffer[--pos] = (char) ('0' + digits % 10);
+            digits /= 10;
+        }
+        if (decimals > 0)
+            buffer[--pos] = '.';
+        do {
+            buffer[--pos] = (char) ('0' + digits % 10);
+            digits /= 10;
+        } while (digits > 0);
+        if (value < 0)
+            buffer[--pos] = '-';
+        return new String(buffer, pos, buffer.length - pos);
+    }
+
+    private static class Recent {
+
+        private final int bits;
+        private final Tag tag;
+
+        Recent(int bits, Tag tag) {
+            this.bits = bits;
+            this.tag = tag;
+        }
+    }
+}
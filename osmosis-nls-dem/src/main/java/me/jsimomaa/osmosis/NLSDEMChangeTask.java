@@ -0,0 +1,106 @@
+package me.jsimomaa.osmosis;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+
+import org.openstreetmap.osmosis.core.container.v0_6.ChangeContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.task.common.ChangeAction;
+import org.openstreetmap.osmosis.core.task.v0_6.ChangeSink;
+import org.openstreetmap.osmosis.core.task.v0_6.ChangeSinkChangeSource;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+
+/**
+ * Adds elevations to the created and modified nodes of a change stream, e.g.
+ * an <code>.osc</code> replication diff. Deleted entities are passed on as
+ * they are.
+ * <br>
+ * <br>
+ * The changes are run through an ordered {@link NLSDEMTask}, so the map
+ * sheets, tile cache and sampling are the same as with a full extract. As
+ * the entities come out in the order they went in, the action of each
+ * change is queued on the way in and reattached on the way out.
+ * <br>
+ * <br>
+ * A result cache is updated with the created and modified nodes but never
+ * compacted, as a diff holds only a few of the nodes of the cache.
+ *
+ * @author jsimomaa
+ *
+ */
+public class NLSDEMChangeTask implements ChangeSinkChangeSource {
+
+    private final NLSDEMTask task;
+    // Actions of the changes within the task, touched by the pipeline thread
+    // only
+    private final Queue<ChangeAction> actions = new ArrayDeque<>();
+    private ChangeSink changeSink;
+
+    /**
+     * @param task
+     *            enriching the entities, must pass them on in input order
+     */
+    public NLSDEMChangeTask(NLSDEMTask task) {
+        this.task = task;
+        task.setSink(new ChangeSinkAdapter());
+        task.setResultCacheCompact(false);
+    }
+
+    @Override
+    public void setChangeSink(ChangeSink changeSink) {
+        this.changeSink = changeSink;
+    }
+
+    @Override
+    public void initialize(Map<String, Object> metaData) {
+        task.initialize(metaData);
+        changeSink.initialize(metaData);
+    }
+
+    @Override
+    public void process(ChangeContainer change) {
+        actions.add(change.getAction());
+        if (change.getAction() == ChangeAction.Delete)
+            task.passThrough(change.getEntityContainer());
+        else
+            task.process(change.getEntityContainer());
+    }
+
+    @Override
+    public void complete() {
+        task.complete();
+    }
+
+    @Override
+    public void release() {
+        task.release();
+    }
+
+    /**
+     * Receives the entities from the task in input order and passes them on
+     * as changes
+     */
+    private final class ChangeSinkAdapter implements Sink {
+
+        @Override
+        public void initialize(Map<String, Object> metaData) {
+            // Initialized by the change task
+        }
+
+        @Override
+        public void process(EntityContainer entityContainer) {
+            changeSink.process(new ChangeContainer(entityContainer, actions.remove()));
+        }
+
+        @Override
+        public void complete() {
+            changeSink.complete();
+        }
+
+        @Override
+        public void release() {
+            changeSink.release();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package me.jsimomaa.osmosis;
+
+import org.openstreetmap.osmosis.core.pipeline.common.TaskConfiguration;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskManager;
+import org.openstreetmap.osmosis.core.pipeline.v0_6.ChangeSinkChangeSourceManager;
+
+/**
+ * Creates {@link NLSDEMChangeTask}s. Takes the same arguments as
+ * {@link NLSDEMTaskManagerFactory} except for the ones that hold entities
+ * back or change their order.
+ *
+ * @author jsimomaa
+ *
+ */
+public class NLSDEMChangeTaskManagerFactory extends NLSDEMTaskManagerFactory {
+
+    @Override
+    protected TaskManager createTaskManagerImpl(TaskConfiguration taskConfig) {
+        if (getBooleanArgument(taskConfig, "spill", false))
+            throw new IllegalArgumentException("spill cannot be used with change streams!");
+        if ("spill".equals(getStringArgument(taskConfig, "pendingOverflow", "block")))
+            throw new IllegalArgumentException("pendingOverflow=spill cannot be used with change streams!");
+        // A diff holds only the changed nodes of a way
+        if (getBooleanArgument(taskConfig, "wayTags", false))
+            throw new IllegalArgumentException("wayTags cannot be used with change streams!");
+        // Compaction would drop every cached node missing from the diff
+        if (getBooleanArgument(taskConfig, "resultCacheCompact", false))
+            throw new IllegalArgumentException("resultCacheCompact cannot be used with change streams!");
+
+        NLSDEMTask task = createTask(taskConfig);
+        // Actions are matched to the entities by their order
+        task.setOrdered(true);
+        return new ChangeSinkChangeSourceManager(taskConfig.getId(), new NLSDEMChangeTask(task),
+                taskConfig.getPipeArgs());
+    }
+}
@@ -1,6 +1,6 @@
 package me.jsimomaa.osmosis;
 
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.openstreetmap.osmosis.core.pipeline.common.TaskManagerFactory;
@@ -14,6 +14,9 @@ public class NLSDEMPluginLoader implements PluginLoader {
 
     @Override
     public Map<String, TaskManagerFactory> loadTaskFactories() {
-        return Collections.singletonMap("nls-dem", new NLSDEMTaskManagerFactory());
+        Map<String, TaskManagerFactory> factories = new HashMap<>();
+        factories.put("nls-dem", new NLSDEMTaskManagerFactory());
+        factories.put("nls-dem-change", new NLSDEMChangeTaskManagerFactory());
+        return factories;
     }
 }
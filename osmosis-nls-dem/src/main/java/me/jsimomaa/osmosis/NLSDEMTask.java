@@ -0,0 +1,1582 @@
+package me.jsimomaa.osmosis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.PrjFileReader;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.geometry.MismatchedDimensionException;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import org.openstreetmap.osmosis.core.container.v0_6.BoundContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityProcessor;
+import org.openstreetmap.osmosis.core.container.v0_6.NodeContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.RelationContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.WayContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.Bound;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.lifecycle.ReleasableIterator;
+import org.openstreetmap.osmosis.core.store.GenericObjectSerializationFactory;
+import org.openstreetmap.osmosis.core.store.SimpleObjectStore;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import org.openstreetmap.osmosis.core.task.v0_6.SinkSource;
+
+import me.jsimomaa.osmosis.metrics.NLSDEMMetrics;
+import me.jsimomaa.osmosis.source.ElevationSource;
+import me.jsimomaa.osmosis.tile.ElevationTile;
+import me.jsimomaa.osmosis.tile.Interpolation;
+import me.jsimomaa.osmosis.tile.Resolution;
+import me.jsimomaa.osmosis.tile.TileCache;
+import me.jsimomaa.osmosis.tile.TileEncoding;
+import me.jsimomaa.osmosis.tile.TileLoader;
+import me.jsimomaa.osmosis.tile.TileSampler;
+import me.jsimomaa.osmosis.utils.DemProduct;
+import me.jsimomaa.osmosis.utils.ElevationResultCache;
+import me.jsimomaa.osmosis.utils.NLSXMLClient;
+import me.jsimomaa.osmosis.utils.NodeElevationIndex;
+import me.jsimomaa.osmosis.utils.ReorderBuffer;
+import me.jsimomaa.osmosis.utils.SheetSpill;
+import me.jsimomaa.osmosis.utils.SheetSpill.SpilledNodeConsumer;
+import me.jsimomaa.osmosis.utils.SpatialOrder;
+import me.jsimomaa.osmosis.utils.TM35Utils;
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+/**
+ * @author jsimomaa
+ *
+ */
+public class NLSDEMTask implements SinkSource, EntityProcessor {
+
+    private static final Logger LOGGER = Logger.getLogger(NLSDEMTask.class.getName());
+
+    public static final int DEFAULT_TILE_CACHE_MB = 1024;
+    public static final int DEFAULT_TRANSFORM_BATCH_SIZE = 1024;
+    public static final int DEFAULT_WORKERS = 1;
+    public static final int DEFAULT_PROGRESS_INTERVAL_SECONDS = 60;
+
+    private static final int DOWNLOADERS = Runtime.getRuntime().availableProcessors();
+    private static final int PENDING_NODE_BYTES = 160;
+    private static final int PENDING_TAG_BYTES = 96;
+
+    // Scale of the map sheets of the NLS 2 m elevation model
+    private static final TM35Scale SHEET_SCALE = DemProduct.HILA_2M.getScale();
+    private static final int SAMPLER_SCALES = TM35Scale.values().length;
+
+    private Sink sink;
+    private final CoordinateReferenceSystem sourceCRS;
+    private final CoordinateReferenceSystem targetCRS;
+    private final MathTransform transform;
+    private final ExecutorService tiffDownloaderService;
+    // Nodes waiting for their map sheet - only touched by the pipeline thread
+    private final Map<Integer, List<TranslatedNode>> processing = new HashMap<>();
+
+    private TileCache<ElevationTile> ready = createTileCache(DEFAULT_TILE_CACHE_MB);
+    private final Set<Integer> notFound = ConcurrentHashMap.newKeySet();
+    private final ElevationSource source;
+    // Source of the 10 m map sheets if not served by the main source
+    private ElevationSource coarseSource;
+    private Resolution resolution = Resolution.FINE;
+    private TM35Scale scale = SHEET_SCALE;
+    // Nodes sampled from the 2 m model in hybrid mode
+    private List<double[]> refineAreas = new ArrayList<>();
+    private String[] refineKeys = new String[0];
+    private String[] refineValues = new String[0];
+    private final NLSDEMMetrics metrics;
+    private boolean jmx = false;
+    private int progressIntervalSeconds = DEFAULT_PROGRESS_INTERVAL_SECONDS;
+
+    private final Set<Integer> executorExecuting = ConcurrentHashMap.newKeySet();
+    // Work handed back to the pipeline thread by the downloader and worker
+    // threads, e.g. a sheet has been loaded or a chunk of nodes enriched
+    private final BlockingQueue<Runnable> pipelineTasks = new LinkedBlockingQueue<>();
+    private boolean override = true;
+    private boolean rawTiles = false;
+    private TileEncoding tileEncoding = TileEncoding.FLOAT32;
+    private TileLoader tileLoader;
+    private String[] tags = new String[0];
+    private int heightDecimals = HeightFormat.SHORTEST;
+    private NodeEnricher enricher = new NodeEnricher(tags, override, heightDecimals);
+    private Interpolation interpolation = Interpolation.NEAREST;
+
+    // Elevations of the nodes for the way tags
+    private NodeElevationIndex elevations;
+    private WayEnricher wayEnricher;
+
+    // Nodes waiting for a batched transform to EPSG:3067 - coordinates are
+    // interleaved as lon, lat and transformed in place to x, y
+    private Node[] batchNodes = new Node[DEFAULT_TRANSFORM_BATCH_SIZE];
+    private double[] batchCoords = new double[2 * DEFAULT_TRANSFORM_BATCH_SIZE];
+    private long[] batchSeqs = new long[DEFAULT_TRANSFORM_BATCH_SIZE];
+    private int batchSize = 0;
+    private int transformBatchSize = DEFAULT_TRANSFORM_BATCH_SIZE;
+
+    // Batch is sorted by map sheet before dispatching when the locality
+    // window is enabled
+    private int localityWindow = 0;
+    private int[] batchSheets;
+    private long[] batchOrder;
+    private int lastSheet = TM35Utils.NO_SHEET;
+
+    // Elevations of the previous runs
+    private Path resultCacheFile;
+    private ElevationResultCache resultCache;
+    private boolean resultCacheCompact = false;
+    private long nodeCount = 0;
+    private long startTime = 0;
+
+    // Sampling and tag rewriting is done in chunks by the worker pool, or on
+    // the pipeline thread if there is only a single worker
+    private int workers = DEFAULT_WORKERS;
+    private ExecutorService workerService;
+    private int inFlight = 0;
+
+    // Every entity gets a sequence number so that the input order can be
+    // restored when ordered output is requested
+    private long nextSeq = 0;
+    private ReorderBuffer<EntityContainer> reorderBuffer;
+
+    // Cap for the nodes waiting for their map sheet. Past the cap the
+    // pipeline thread blocks or further nodes overflow to disk.
+    private int maxPendingNodes = 0;
+    private long maxPendingBytes = 0;
+    private int pendingNodes = 0;
+    private long pendingBytes = 0;
+    private Path overflowDirectory;
+    private long overflowBufferBytes;
+    private SheetSpill overflow;
+
+    // Map sheets to download ahead of the nodes - only touched by the
+    // pipeline thread
+    private boolean prefetch = false;
+    private double[] prefetchBbox;
+    private final Deque<Integer> prefetchQueue = new ArrayDeque<>();
+    private int prefetchInFlight = 0;
+
+    // Sheet-bucketed mode - nodes are spilled to disk and processed one sheet
+    // at a time on complete()
+    private Path spillDirectory;
+    private long spillBufferBytes;
+    private SheetSpill spill;
+    private SimpleObjectStore<EntityContainer> spilledEntities;
+
+    public NLSDEMTask(String apiKey) throws URISyntaxException {
+        this(apiKey, System.getProperty("java.io.tmpdir"));
+    }
+
+    public NLSDEMTask(String apiKey, String tiffStorage) throws URISyntaxException {
+        this(apiKey, NLSDEMTask.class.getResource("EPSG3067.prj").toURI(), tiffStorage);
+
+    }
+
+    public NLSDEMTask(String apiKey, URI prjFileLocation, String tiffStorage) throws URISyntaxException {
+        this(new NLSXMLClient(apiKey, tiffStorage != null ? tiffStorage : System.getProperty("java.io.tmpdir")),
+                prjFileLocation);
+    }
+
+    /**
+     * @param source
+     *            of the map sheets, closed when the task is released
+     * @param prjFileLocation
+     *            <code>.prj</code>-file with WKT containing EPSG:3067 or
+     *            <code>null</code> for the one within the JAR
+     * @throws URISyntaxException
+     */
+    public NLSDEMTask(ElevationSource source, URI prjFileLocation) throws URISyntaxException {
+        if (prjFileLocation == null)
+            // Fallback to EPSG3067 found within JAR
+            prjFileLocation = NLSDEMTask.class.getResource("EPSG3067.prj").toURI();
+
+        Path prjFile = Paths.get(prjFileLocation);
+        if (!Files.isReadable(prjFile))
+            throw new IllegalArgumentException(
+                    ".prj file " + prjFileLocation + " cannot be read. See that it exists and is readable!");
+
+        this.sourceCRS = DefaultGeographicCRS.WGS84;
+        try {
+            PrjFileReader reader = new PrjFileReader(FileChannel.open(prjFile, StandardOpenOption.READ));
+            targetCRS = reader.getCoordinateReferenceSystem();
+            transform = CRS.findMathTransform(sourceCRS, targetCRS);
+        } catch (FactoryException | IOException e) {
+            throw new IllegalArgumentException(".prj file provided is invalid!", e);
+        }
+        this.source = source;
+        this.metrics = new NLSDEMMetrics(new NLSDEMMetrics.Gauges() {
+
+            @Override
+            public int sheetsDownloading() {
+                return executorExecuting.size();
+            }
+
+            @Override
+            public int sheetsReady() {
+                return ready.size();
+            }
+
+            @Override
+            public int sheetsNotFound() {
+                return notFound.size();
+            }
+
+            @Override
+            public long cacheHits() {
+                return ready.getHits();
+            }
+
+            @Override
+            public long cacheMisses() {
+                return ready.getMisses();
+            }
+
+            @Override
+            public long sourceRetries() {
+                return source.getRetries() + (coarseSource != null ? coarseSource.getRetries() : 0);
+            }
+        }, TM35Utils::sheetName);
+        this.tileLoader = new TileLoader(targetCRS, rawTiles, tileEncoding, metrics);
+        this.tiffDownloaderService = Executors.newFixedThreadPool(DOWNLOADERS,
+                new NLSTiffDownloaderFactory("osmosis-nls-tiff-downloader-"));
+    }
+
+    @Override
+    public void process(EntityContainer entityContainer) {
+        entityContainer.process(this);
+    }
+
+    @Override
+    public void initialize(Map<String, Object> metaData) {
+        metrics.start(jmx, progressIntervalSeconds);
+        if (resultCacheFile != null) {
+            try {
+                resultCache = new ElevationResultCache(resultCacheFile, fingerprint());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open elevation result cache " + resultCacheFile, e);
+            }
+        }
+        if (prefetchBbox != null)
+            prefetch(prefetchBbox[0], prefetchBbox[1], prefetchBbox[2], prefetchBbox[3]);
+    }
+
+    @Override
+    public void complete() {
+        try {
+            flushBatch();
+            if (spillDirectory != null)
+                processSpill();
+            shutdown();
+            if (reorderBuffer != null && reorderBuffer.size() > 0)
+                LOGGER.warning(reorderBuffer.size() + " entities are still waiting for entity "
+                        + reorderBuffer.getNext() + " and were not passed on!");
+            releaseElevations();
+            releaseResultCache(true);
+            sink.complete();
+        } finally {
+            // End the progress log and the MBean with the run - stopping again
+            // in release() is harmless
+            metrics.stop();
+        }
+    }
+
+    @Override
+    public void release() {
+        shutdown();
+        metrics.stop();
+        releaseSpill();
+        releaseElevations();
+        releaseResultCache(false);
+        try {
+            source.close();
+            if (coarseSource != null)
+                coarseSource.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not close elevation source", e);
+        }
+        sink.release();
+    }
+
+    public void shutdown() {
+        if (!tiffDownloaderService.isShutdown()) {
+            try {
+                // Keep the downloader running as long as there are pending
+                // nodes - evicted sheets might have to be reloaded
+                awaitPipelineTasks();
+                awaitPrefetch();
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.SEVERE, "NLSDEMTask did not complete succesfully!", e);
+                Thread.currentThread().interrupt();
+            }
+            tiffDownloaderService.shutdown();
+            if (workerService != null)
+                workerService.shutdown();
+            if (nodeCount > 0) {
+                double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+                LOGGER.info(String.format("Processed %d nodes in %.1f s (%.0f nodes/s)", nodeCount, seconds,
+                        nodeCount / seconds));
+            }
+            LOGGER.info("Tile cache: " + ready);
+            if (resultCache != null)
+                LOGGER.info("Elevation result cache: " + resultCache);
+            LOGGER.info(metrics.progress());
+            ready.clear();
+        }
+    }
+
+    @Override
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void process(BoundContainer bound) {
+        flushBatch();
+        if (prefetch && prefetchBbox == null) {
+            Bound b = bound.getEntity();
+            prefetch(b.getLeft(), b.getBottom(), b.getRight(), b.getTop());
+        }
+        emit(nextSeq++, bound);
+    }
+
+    @Override
+    public void process(NodeContainer nodec) {
+        if (startTime == 0)
+            startTime = System.nanoTime();
+        nodeCount++;
+        metrics.nodeIn();
+
+        Node node = nodec.getEntity();
+        if (resultCache != null) {
+            long slot = resultCache.find(node.getId(), node.getLatitude(), node.getLongitude());
+            if (slot != ElevationResultCache.NOT_FOUND) {
+                // Not moved since the previous run - no need to sample again
+                float z = resultCache.z(slot);
+                if (elevations != null)
+                    elevations.put(node.getId(), resultCache.x(slot), resultCache.y(slot), z);
+                emit(nextSeq++, new NodeContainer(enricher.enrich(node, z)));
+                return;
+            }
+        }
+
+        batchSeqs[batchSize] = nextSeq++;
+        batchNodes[batchSize] = node;
+        batchCoords[2 * batchSize] = node.getLongitude();
+        batchCoords[2 * batchSize + 1] = node.getLatitude();
+        if (++batchSize == batchNodes.length)
+            flushBatch();
+    }
+
+    /**
+     * Transforms the batched nodes to EPSG:3067 with a single call and
+     * dispatches them
+     */
+    private void flushBatch() {
+        if (batchSize == 0)
+            return;
+        boolean transformed = true;
+        try {
+            transform.transform(batchCoords, 0, batchCoords, 0, batchSize);
+        } catch (MismatchedDimensionException | TransformException e) {
+            transformed = false;
+        }
+        if (transformed && localityWindow > 0) {
+            dispatchByLocality();
+        } else {
+            EnrichChunk chunk = new EnrichChunk(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                if (transformed)
+                    dispatch(batchSeqs[i], batchNodes[i], batchCoords[2 * i], batchCoords[2 * i + 1], chunk);
+                else
+                    // Some point of the batch is invalid - transform them one
+                    // by one to find out which
+                    transformAndDispatch(batchSeqs[i], batchNodes[i], chunk);
+            }
+            submit(chunk);
+        }
+        for (int i = 0; i < batchSize; i++)
+            batchNodes[i] = null;
+        batchSize = 0;
+        runPipelineTasks();
+    }
+
+    /**
+     * Dispatches the transformed nodes of the batch grouped by map sheet and
+     * along a Hilbert curve within each sheet, so that each sheet is looked up
+     * once per window instead of once per run of nodes
+     */
+    private void dispatchByLocality() {
+        for (int i = 0; i < batchSize; i++) {
+            double x = batchCoords[2 * i];
+            double y = batchCoords[2 * i + 1];
+            batchSheets[i] = sheetFor(batchNodes[i], x, y);
+            batchOrder[i] = SpatialOrder.key(batchSheets[i], x, y, i);
+        }
+        Arrays.sort(batchOrder, 0, batchSize);
+
+        EnrichChunk chunk = new EnrichChunk(Math.min(batchSize, transformBatchSize));
+        for (int k = 0; k < batchSize; k++) {
+            int i = SpatialOrder.index(batchOrder[k]);
+            dispatch(batchSeqs[i], batchNodes[i], batchCoords[2 * i], batchCoords[2 * i + 1], batchSheets[i], chunk);
+            if (chunk.isFull()) {
+                submit(chunk);
+                chunk = new EnrichChunk(Math.min(batchSize - k - 1, transformBatchSize));
+            }
+        }
+        submit(chunk);
+    }
+
+    private void transformAndDispatch(long seq, Node node, EnrichChunk chunk) {
+        double lat = node.getLatitude();
+        double lon = node.getLongitude();
+
+        // Transform to EPSG:3067
+        DirectPosition2D ptDst = new DirectPosition2D(targetCRS);
+        try {
+            transform.transform(new DirectPosition2D(sourceCRS, lon, lat), ptDst);
+            dispatch(seq, node, ptDst.x, ptDst.y, chunk);
+        } catch (MismatchedDimensionException | TransformException e) {
+            LOGGER.log(Level.WARNING, "Could not transform lat=" + lat + ", lon=" + lon + " from " + sourceCRS
+                    + " to " + targetCRS + " - passing the node without z-tag", e);
+            emit(seq, new NodeContainer(node));
+        }
+    }
+
+    private void dispatch(long seq, Node node, double x, double y, EnrichChunk chunk) {
+        dispatch(seq, node, x, y, sheetFor(node, x, y), chunk);
+    }
+
+    private void dispatch(long seq, Node node, double x, double y, int tm35MapSheet, EnrichChunk chunk) {
+        if (tm35MapSheet == TM35Utils.NO_SHEET) {
+            // Outside of the TM35 grid - there is no elevation data
+            emit(seq, new NodeContainer(node));
+            return;
+        }
+        if (tm35MapSheet != lastSheet) {
+            metrics.sheetSwitch();
+            lastSheet = tm35MapSheet;
+        }
+
+        if (spillDirectory != null) {
+            getSpill().add(tm35MapSheet, x, y, node);
+            return;
+        }
+
+        ElevationTile tile = ready.get(tm35MapSheet);
+
+        if (tile != null && chunk.add(seq, node, x, y, tm35MapSheet, tile)) {
+            // Computation is done when the chunk is submitted
+            return;
+        } else if (notFound.contains(tm35MapSheet)) {
+            // No elevation data available for the sheet
+            emit(seq, new NodeContainer(node));
+        } else {
+            // Download tiff async
+            addPending(tm35MapSheet, seq, node, x, y);
+            submitTiffQuerying(tm35MapSheet);
+        }
+    }
+
+    /**
+     * @return map sheet to sample the node from
+     */
+    private int sheetFor(Node node, double x, double y) {
+        if (resolution != Resolution.HYBRID)
+            return TM35Utils.sheetId(x, y, scale);
+        if (isRefined(node))
+            return TM35Utils.sheetId(x, y, SHEET_SCALE);
+
+        int tm35MapSheet = TM35Utils.sheetId(x, y, scale);
+        if (tm35MapSheet != TM35Utils.NO_SHEET && notFound.contains(tm35MapSheet))
+            // No 10 m data for the sheet - fall back to 2 m
+            return TM35Utils.sheetId(x, y, SHEET_SCALE);
+        return tm35MapSheet;
+    }
+
+    private boolean isRefined(Node node) {
+        double lon = node.getLongitude();
+        double lat = node.getLatitude();
+        for (double[] area : refineAreas) {
+            if (lon >= area[0] && lat >= area[1] && lon <= area[2] && lat <= area[3])
+                return true;
+        }
+        if (refineKeys.length == 0)
+            return false;
+        for (Tag tag : node.getTags()) {
+            for (int i = 0; i < refineKeys.length; i++) {
+                if (tag.getKey().equals(refineKeys[i])
+                        && (refineValues[i] == null || tag.getValue().equals(refineValues[i])))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void addPending(int tm35MapSheet, long seq, Node node, double x, double y) {
+        if (overflowDirectory != null && isPendingFull()) {
+            // Completed together with the pending nodes of the sheet
+            getOverflow().add(tm35MapSheet, x, y, node);
+            return;
+        }
+
+        TranslatedNode trNode = new TranslatedNode(seq, node, x, y);
+        processing.computeIfAbsent(tm35MapSheet, k -> new ArrayList<>()).add(trNode);
+        pendingNodes++;
+        pendingBytes += trNode.bytes;
+        metrics.pending(tm35MapSheet, 1);
+
+        if (overflowDirectory == null && isPendingFull()) {
+            // Wait for map sheets to complete
+            try {
+                while (isPendingFull())
+                    pipelineTasks.take().run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for pending nodes", e);
+            }
+        }
+    }
+
+    private boolean isPendingFull() {
+        return (maxPendingNodes > 0 && pendingNodes >= maxPendingNodes)
+                || (maxPendingBytes > 0 && pendingBytes >= maxPendingBytes);
+    }
+
+    @Override
+    public void process(WayContainer way) {
+        flushBatch();
+        if (spillDirectory != null) {
+            getSpilledEntities().add(way);
+            return;
+        }
+        if (elevations != null) {
+            // The elevations of all nodes must be known before the way
+            try {
+                awaitPipelineTasks();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the elevations of the nodes", e);
+            }
+        }
+        emit(nextSeq++, enrich(way));
+    }
+
+    private WayContainer enrich(WayContainer way) {
+        if (elevations == null)
+            return way;
+        Way enriched = wayEnricher.enrich(way.getEntity());
+        return enriched != way.getEntity() ? new WayContainer(enriched) : way;
+    }
+
+    @Override
+    public void process(RelationContainer relation) {
+        flushBatch();
+        if (spillDirectory != null)
+            getSpilledEntities().add(relation);
+        else
+            emit(nextSeq++, relation);
+    }
+
+    /**
+     * Passes the entity on without enriching it, after the entities received
+     * before it when ordered output has been requested. Not supported in the
+     * sheet-bucketed mode.
+     *
+     * @param container
+     *            entity to pass on
+     */
+    void passThrough(EntityContainer container) {
+        flushBatch();
+        emit(nextSeq++, container);
+    }
+
+    /**
+     * Passes the entity on to the sink, in input order if ordered output has
+     * been requested. Only called by the pipeline thread.
+     * 
+     * @param seq
+     *            sequence number of the entity
+     * @param container
+     *            entity to pass on
+     */
+    private void emit(long seq, EntityContainer container) {
+        if (reorderBuffer == null) {
+            passOn(container);
+        } else {
+            reorderBuffer.put(seq, container);
+            reorderBuffer.drain(this::passOn);
+        }
+    }
+
+    private void passOn(EntityContainer container) {
+        if (container instanceof NodeContainer)
+            metrics.nodeOut();
+        sink.process(container);
+    }
+
+    public void setOverrideExisting(boolean override) {
+        this.override = override;
+        this.enricher = new NodeEnricher(tags, override, heightDecimals);
+        if (elevations != null)
+            this.wayEnricher = new WayEnricher(elevations, override);
+    }
+
+    public void setHeightTags(String[] tags) {
+        this.tags = tags;
+        this.enricher = new NodeEnricher(tags, override, heightDecimals);
+    }
+
+    /**
+     * Sets the amount of decimals in the z-tags. Heights with at most two
+     * decimals share their tags between the nodes.
+     *
+     * @param heightDecimals
+     *            from 0 to {@link HeightFormat#MAX_DECIMALS} or
+     *            {@link HeightFormat#SHORTEST} for the shortest form that
+     *            reads back as the sampled float
+     */
+    public void setHeightDecimals(int heightDecimals) {
+        this.heightDecimals = heightDecimals;
+        this.enricher = new NodeEnricher(tags, override, heightDecimals);
+    }
+
+    /**
+     * Enables the ascent, descent and maximum incline tags on ways. The
+     * elevations of the nodes are kept in an off-heap index until the input
+     * is complete. Ways are held back until the elevations of the nodes
+     * before them are known.
+     * 
+     * @param directory
+     *            for the index if it grows beyond the memory budget
+     * @param memoryMb
+     *            memory budget for the index
+     */
+    public void setWayTags(String directory, int memoryMb) {
+        releaseElevations();
+        this.elevations = new NodeElevationIndex(Paths.get(directory), memoryMb * 1024L * 1024L);
+        this.wayEnricher = new WayEnricher(elevations, override);
+    }
+
+    private void releaseElevations() {
+        if (elevations != null) {
+            try {
+                elevations.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not delete node elevation index", e);
+            }
+            elevations = null;
+            wayEnricher = null;
+        }
+    }
+
+    /**
+     * Keeps the elevations of the nodes in a file across runs. Nodes found in
+     * the file at the same location are passed on with the stored elevation
+     * without transforming their coordinates or sampling a map sheet. Nodes
+     * are matched by their id and location only, so the file is started over
+     * whenever the settings affecting the elevations change.
+     *
+     * @param file
+     *            location of the cache, created if it does not exist
+     */
+    public void setResultCache(String file) {
+        this.resultCacheFile = Paths.get(file);
+    }
+
+    /**
+     * Drops the nodes not seen by a completed run from the result cache once
+     * they make up a quarter of it. Only safe if every run reads the whole
+     * extract the cache was filled from - a smaller extract would drop the
+     * nodes outside of it.
+     *
+     * @param compact
+     *            <code>true</code> to compact the cache after a completed run
+     */
+    public void setResultCacheCompact(boolean compact) {
+        this.resultCacheCompact = compact;
+    }
+
+    private void releaseResultCache(boolean completed) {
+        if (resultCache != null) {
+            try {
+                // Only a complete input of the same extract tells which
+                // nodes are gone
+                if (completed && resultCacheCompact)
+                    resultCache.compact();
+                resultCache.close();
+            } catch (IOException | UncheckedIOException e) {
+                LOGGER.log(Level.WARNING, "Could not store elevation result cache " + resultCacheFile, e);
+            }
+            resultCache = null;
+        }
+    }
+
+    /**
+     * @return hash of the settings affecting the sampled elevations
+     */
+    long fingerprint() {
+        StringBuilder settings = new StringBuilder().append(resolution).append('/').append(interpolation)
+                .append('/').append(tileEncoding);
+        if (resolution == Resolution.HYBRID) {
+            for (double[] area : refineAreas)
+                settings.append('/').append(Arrays.toString(area));
+            for (int i = 0; i < refineKeys.length; i++)
+                settings.append('/').append(refineKeys[i]).append('=').append(refineValues[i]);
+        }
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < settings.length(); i++) {
+            hash ^= settings.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Should the map sheets intersecting the bounding box of the input be
+     * downloaded and converted as soon as the bound of the input is received,
+     * ahead of the nodes
+     * 
+     * @param prefetch
+     *            <code>true</code> to prefetch
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Prefetches the map sheets intersecting the given bounding box instead
+     * of the bounding box of the input. Prefetch starts when the pipeline is
+     * initialized.
+     * 
+     * @param left
+     *            west edge in WGS84
+     * @param bottom
+     *            south edge in WGS84
+     * @param right
+     *            east edge in WGS84
+     * @param top
+     *            north edge in WGS84
+     */
+    public void setPrefetchBbox(double left, double bottom, double right, double top) {
+        if (left >= right || bottom >= top)
+            throw new IllegalArgumentException(
+                    "Invalid bounding box " + left + "," + bottom + "," + right + "," + top + "!");
+        this.prefetch = true;
+        this.prefetchBbox = new double[] { left, bottom, right, top };
+    }
+
+    /**
+     * Caps the amount of nodes waiting for their map sheet to be downloaded.
+     * Past the cap the pipeline thread blocks until sheets complete unless
+     * overflow to disk has been enabled. Must be called before processing
+     * starts.
+     * 
+     * @param maxPendingNodes
+     *            maximum amount of pending nodes, 0 for no limit
+     * @param maxPendingMb
+     *            maximum estimated memory held by pending nodes, 0 for no
+     *            limit
+     */
+    public void setMaxPending(int maxPendingNodes, int maxPendingMb) {
+        if (maxPendingNodes < 0 || maxPendingMb < 0)
+            throw new IllegalArgumentException(
+                    "Pending node limits cannot be negative! (" + maxPendingNodes + ", " + maxPendingMb + ")");
+        this.maxPendingNodes = maxPendingNodes;
+        this.maxPendingBytes = maxPendingMb * 1024L * 1024L;
+    }
+
+    /**
+     * Spills nodes past the pending node cap to disk instead of blocking the
+     * pipeline thread. The spilled nodes are processed when their map sheet
+     * completes. Cannot be used with ordered output.
+     * 
+     * @param overflowDirectory
+     *            directory for the overflow files
+     * @param overflowBufferMb
+     *            memory budget for buffering overflowed nodes before they are
+     *            written to disk
+     * @throws IllegalStateException
+     *             if ordered output has been requested
+     */
+    public void setPendingOverflow(String overflowDirectory, int overflowBufferMb) {
+        if (reorderBuffer != null)
+            throw new IllegalStateException("Pending overflow cannot be used with ordered output!");
+        this.overflowDirectory = Paths.get(overflowDirectory);
+        this.overflowBufferBytes = overflowBufferMb * 1024L * 1024L;
+    }
+
+    /**
+     * Sets the method for interpolating the elevation between cell centers.
+     * Bilinear and bicubic interpolation read the cells beyond the edge of a
+     * sheet from the adjacent sheet if it is resident in the tile cache.
+     * 
+     * @param interpolation
+     *            method
+     */
+    public void setInterpolation(Interpolation interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * Sets how many nodes are transformed to EPSG:3067 with a single call.
+     * Must be called before processing starts.
+     * 
+     * @param transformBatchSize
+     *            amount of nodes per batch
+     */
+    public void setTransformBatchSize(int transformBatchSize) {
+        if (transformBatchSize < 1)
+            throw new IllegalArgumentException("Transform batch size must be positive! (" + transformBatchSize + ")");
+        this.transformBatchSize = transformBatchSize;
+        allocateBatch();
+    }
+
+    /**
+     * Buffers up to the given amount of nodes and dispatches them grouped by
+     * map sheet, and by proximity within each sheet. Input ordered by node id
+     * jumps between the sheets, so the window trades memory for fewer tile
+     * cache lookups and evictions. Must be called before processing starts.
+     * 
+     * @param localityWindow
+     *            amount of nodes sorted at once, 0 to dispatch the nodes in
+     *            input order
+     */
+    public void setLocalityWindow(int localityWindow) {
+        if (localityWindow < 0 || localityWindow > SpatialOrder.MAX_WINDOW)
+            throw new IllegalArgumentException(
+                    "Locality window must be between 0 and " + SpatialOrder.MAX_WINDOW + "! (" + localityWindow + ")");
+        this.localityWindow = localityWindow;
+        allocateBatch();
+    }
+
+    private void allocateBatch() {
+        int capacity = Math.max(transformBatchSize, localityWindow);
+        this.batchNodes = new Node[capacity];
+        this.batchCoords = new double[2 * capacity];
+        this.batchSeqs = new long[capacity];
+        this.batchSheets = localityWindow > 0 ? new int[capacity] : null;
+        this.batchOrder = localityWindow > 0 ? new long[capacity] : null;
+    }
+
+    /**
+     * Sets the amount of threads sampling the elevations and rewriting the
+     * tags of the nodes. With a single worker everything is done on the
+     * pipeline thread. Must be called before processing starts.
+     * 
+     * @param workers
+     *            amount of worker threads
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("Amount of workers must be positive! (" + workers + ")");
+        this.workers = workers;
+    }
+
+    /**
+     * Should the entities be passed on in the same order as they were
+     * received. Otherwise nodes whose sheet is still loading are passed on
+     * once the sheet is ready. Must be called before processing starts.
+     * Cannot be used with spill or pending overflow.
+     * 
+     * @param ordered
+     *            <code>true</code> to keep the input order
+     * @throws IllegalStateException
+     *             if spill or pending overflow has been enabled
+     */
+    public void setOrdered(boolean ordered) {
+        if (ordered && spillDirectory != null)
+            throw new IllegalStateException("Ordered output cannot be used with spill!");
+        if (ordered && overflowDirectory != null)
+            throw new IllegalStateException("Ordered output cannot be used with pending overflow!");
+        this.reorderBuffer = ordered ? new ReorderBuffer<>() : null;
+    }
+
+    /**
+     * Sets the elevation model the nodes are sampled from. Must be called
+     * before processing starts.
+     *
+     * @param resolution
+     *            elevation model
+     * @param coarseSource
+     *            source of the 10 m map sheets or <code>null</code> if the
+     *            main source serves them as well
+     */
+    public void setResolution(Resolution resolution, ElevationSource coarseSource) {
+        this.resolution = resolution;
+        this.scale = resolution.getProduct().getScale();
+        this.coarseSource = coarseSource;
+    }
+
+    /**
+     * Sets the areas sampled from the 2 m model in hybrid mode
+     *
+     * @param areas
+     *            WGS84 bounding boxes as left, bottom, right, top
+     */
+    public void setRefineAreas(List<double[]> areas) {
+        this.refineAreas = new ArrayList<>(areas);
+    }
+
+    /**
+     * Sets the tags of the nodes sampled from the 2 m model in hybrid mode
+     *
+     * @param tags
+     *            keys (<code>key</code>) or tags (<code>key=value</code>)
+     */
+    public void setRefineTags(String[] tags) {
+        this.refineKeys = new String[tags.length];
+        this.refineValues = new String[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            int eq = tags[i].indexOf('=');
+            refineKeys[i] = eq < 0 ? tags[i] : tags[i].substring(0, eq);
+            refineValues[i] = eq < 0 ? null : tags[i].substring(eq + 1);
+        }
+    }
+
+    /**
+     * Sets how often a progress line with the metrics of the task is logged.
+     * Must be called before processing starts.
+     *
+     * @param progressIntervalSeconds
+     *            seconds between the lines, 0 disables the progress log
+     */
+    public void setProgressInterval(int progressIntervalSeconds) {
+        if (progressIntervalSeconds < 0)
+            throw new IllegalArgumentException(
+                    "Progress interval cannot be negative! (" + progressIntervalSeconds + ")");
+        this.progressIntervalSeconds = progressIntervalSeconds;
+    }
+
+    /**
+     * Should the metrics of the task be registered as an MXBean under
+     * <code>me.jsimomaa.osmosis:type=NLSDEMTask</code>. Must be called before
+     * processing starts.
+     *
+     * @param jmx
+     *            <code>true</code> to register the metrics
+     */
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    /**
+     * Sets the memory budget for decoded map sheets. Least recently used
+     * sheets are evicted once the budget is exceeded and reloaded from the
+     * tiff storage if they are needed again. Must be called before processing
+     * starts.
+     *
+     * @param tileCacheMb
+     *            budget in megabytes
+     */
+    public void setTileCacheMb(int tileCacheMb) {
+        this.ready = createTileCache(tileCacheMb);
+    }
+
+    /**
+     * Should downloaded tiffs be converted into raw tiles that are sampled
+     * through memory-mapping. The conversion is done once per map sheet and
+     * the raw tile is stored next to the tiff.
+     * 
+     * @param rawTiles
+     *            <code>true</code> to use raw tiles
+     */
+    public void setRawTiles(boolean rawTiles) {
+        this.rawTiles = rawTiles;
+        this.tileLoader = new TileLoader(targetCRS, rawTiles, tileEncoding, metrics);
+    }
+
+    /**
+     * Sets how the cells of newly converted map sheets are stored, both in
+     * raw tiles and in memory. Quantized encodings round the elevations to
+     * the nearest decimetre (error at most 0.05 m) and fit 2-4 times more
+     * sheets into the same tile cache budget. Raw tiles converted earlier are
+     * used as they are.
+     *
+     * @param tileEncoding
+     *            encoding of the cells
+     */
+    public void setTileEncoding(TileEncoding tileEncoding) {
+        this.tileEncoding = tileEncoding;
+        this.tileLoader = new TileLoader(targetCRS, rawTiles, tileEncoding, metrics);
+    }
+
+    /**
+     * Enables the sheet-bucketed mode. Nodes are spilled to disk grouped by
+     * their map sheet and processed one sheet at a time when the input is
+     * complete, so that only a single sheet is loaded at once regardless of
+     * the input size. Ways and relations are held back on disk as well so
+     * that they are still passed on after the nodes. Cannot be used with
+     * ordered output.
+     * 
+     * @param spillDirectory
+     *            directory for the spill files
+     * @param spillBufferMb
+     *            memory budget for buffering nodes before they are written to
+     *            the spill files
+     * @throws IllegalStateException
+     *             if ordered output has been requested
+     */
+    public void setSpill(String spillDirectory, int spillBufferMb) {
+        if (reorderBuffer != null)
+            throw new IllegalStateException("Spill cannot be used with ordered output!");
+        this.spillDirectory = Paths.get(spillDirectory);
+        this.spillBufferBytes = spillBufferMb * 1024L * 1024L;
+    }
+
+    private SheetSpill getSpill() {
+        if (spill == null) {
+            try {
+                spill = new SheetSpill(spillDirectory, spillBufferBytes);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not create spill directory under " + spillDirectory, e);
+            }
+        }
+        return spill;
+    }
+
+    private SheetSpill getOverflow() {
+        if (overflow == null) {
+            try {
+                overflow = new SheetSpill(overflowDirectory, overflowBufferBytes);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not create overflow directory under " + overflowDirectory,
+                        e);
+            }
+        }
+        return overflow;
+    }
+
+    private SimpleObjectStore<EntityContainer> getSpilledEntities() {
+        if (spilledEntities == null)
+            spilledEntities = new SimpleObjectStore<>(new GenericObjectSerializationFactory(), "nlsdem", true);
+        return spilledEntities;
+    }
+
+    private void processSpill() {
+        try {
+            // The spilled sheets are loaded below - don't load them twice
+            awaitPrefetch();
+            int[] sheets = spill != null ? spill.sheets() : new int[0];
+            if (spill != null)
+                LOGGER.info("Processing " + spill.size() + " spilled nodes on " + sheets.length + " map sheets");
+            // Load the next sheet while the nodes of the current one are
+            // processed
+            Future<ElevationTile> next = sheets.length == 0 ? null : prefetchTile(sheets[0]);
+            for (int i = 0; i < sheets.length; i++) {
+                int sheet = sheets[i];
+                ElevationTile tile = next.get();
+                next = i + 1 < sheets.length ? prefetchTile(sheets[i + 1]) : null;
+
+                EnrichChunk[] chunk = new EnrichChunk[] { new EnrichChunk(transformBatchSize) };
+                spill.drain(sheet, (x, y, node) -> {
+                    if (tile == null) {
+                        passOn(new NodeContainer(node));
+                        return;
+                    }
+                    chunk[0].add(0, node, x, y, sheet, tile);
+                    if (chunk[0].isFull()) {
+                        submit(chunk[0]);
+                        chunk[0] = new EnrichChunk(transformBatchSize);
+                    }
+                });
+                submit(chunk[0]);
+                if (tile != null)
+                    tile.release();
+            }
+            awaitPipelineTasks();
+
+            if (spilledEntities != null) {
+                spilledEntities.complete();
+                ReleasableIterator<EntityContainer> it = spilledEntities.iterate();
+                try {
+                    while (it.hasNext()) {
+                        EntityContainer entity = it.next();
+                        passOn(entity instanceof WayContainer ? enrich((WayContainer) entity) : entity);
+                    }
+                } finally {
+                    it.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read spilled nodes!", e);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Could not load map sheet for spilled nodes!", e);
+        } finally {
+            releaseSpill();
+        }
+    }
+
+    private Future<ElevationTile> prefetchTile(int tm35MapSheet) {
+        return tiffDownloaderService.submit(() -> loadTile(tm35MapSheet));
+    }
+
+    private void releaseSpill() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not delete spill files", e);
+            }
+            spill = null;
+        }
+        if (spilledEntities != null) {
+            spilledEntities.release();
+            spilledEntities = null;
+        }
+        if (overflow != null) {
+            try {
+                overflow.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not delete overflow files", e);
+            }
+            overflow = null;
+        }
+    }
+
+    /**
+     * @return retained tile of the sheet for sampling across sheet edges or
+     *         <code>null</code> if the sheet is not resident
+     */
+    private ElevationTile retainResident(int tm35MapSheet) {
+        ElevationTile tile = ready.getIfPresent(tm35MapSheet);
+        return tile != null && tile.retain() ? tile : null;
+    }
+
+    private static TileCache<ElevationTile> createTileCache(int tileCacheMb) {
+        return new TileCache<>(tileCacheMb * 1024L * 1024L, ElevationTile::sizeInBytes, ElevationTile::release);
+    }
+
+    /**
+     * Enriches the nodes of the chunk on the worker pool, or right away if
+     * there is only a single worker. The chunk is passed on to the sink by
+     * the pipeline thread once it is done.
+     * 
+     * @param chunk
+     *            nodes to enrich
+     */
+    private void submit(EnrichChunk chunk) {
+        if (chunk.size == 0)
+            return;
+        if (workers <= 1) {
+            chunk.run();
+            emit(chunk);
+            return;
+        }
+
+        if (workerService == null)
+            workerService = Executors.newFixedThreadPool(workers, new NLSTiffDownloaderFactory("osmosis-nls-dem-worker-"));
+        inFlight++;
+        workerService.execute(() -> {
+            try {
+                chunk.run();
+            } finally {
+                pipelineTasks.add(() -> {
+                    inFlight--;
+                    emit(chunk);
+                });
+            }
+        });
+
+        // Don't let the workers fall too far behind
+        try {
+            while (inFlight > 2 * workers)
+                pipelineTasks.take().run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for NLSDEMTask workers", e);
+        }
+    }
+
+    private void emit(EnrichChunk chunk) {
+        for (int i = 0; i < chunk.size; i++) {
+            if (!Float.isNaN(chunk.zs[i])) {
+                if (elevations != null)
+                    elevations.put(chunk.ids[i], chunk.xs[i], chunk.ys[i], chunk.zs[i]);
+                if (resultCache != null) {
+                    Node node = ((NodeContainer) chunk.results[i]).getEntity();
+                    resultCache.put(chunk.ids[i], node.getLatitude(), node.getLongitude(), chunk.xs[i],
+                            chunk.ys[i], chunk.zs[i]);
+                }
+            }
+            emit(chunk.seqs[i], chunk.results[i]);
+        }
+    }
+
+    /**
+     * Runs the work handed back to the pipeline thread since the last call
+     */
+    private void runPipelineTasks() {
+        Runnable task;
+        while ((task = pipelineTasks.poll()) != null)
+            task.run();
+    }
+
+    /**
+     * Runs the work handed back to the pipeline thread until no nodes are
+     * waiting for a sheet or a worker anymore
+     */
+    private void awaitPipelineTasks() throws InterruptedException {
+        while (!processing.isEmpty() || inFlight > 0 || (overflow != null && overflow.size() > 0)) {
+            Runnable task = pipelineTasks.poll(10, TimeUnit.SECONDS);
+            if (task != null)
+                task.run();
+            else
+                LOGGER.info("Waiting for NLSDEMTask to finish.. (" + processing.size() + " map sheets pending)");
+        }
+        runPipelineTasks();
+    }
+
+    private void processCompleted(int tm35MapSheet) {
+        List<TranslatedNode> pending = processing.remove(tm35MapSheet);
+        boolean overflowed = overflow != null && overflow.count(tm35MapSheet) > 0;
+        if (pending == null && !overflowed)
+            return;
+        if (pending == null)
+            pending = new ArrayList<>(0);
+        for (TranslatedNode trNode : pending) {
+            pendingNodes--;
+            pendingBytes -= trNode.bytes;
+        }
+        if (!pending.isEmpty())
+            metrics.pending(tm35MapSheet, -pending.size());
+
+        if (notFound.contains(tm35MapSheet) && resolution == Resolution.HYBRID
+                && TM35Utils.scaleOf(tm35MapSheet) != SHEET_SCALE) {
+            // No 10 m data for the sheet - dispatch the nodes again to fall
+            // back to the 2 m sheets
+            List<TranslatedNode> nodes = pending;
+            if (overflowed) {
+                List<TranslatedNode> overflowedNodes = new ArrayList<>(pending);
+                drainOverflow(tm35MapSheet, (x, y, node) -> overflowedNodes.add(new TranslatedNode(0, node, x, y)));
+                nodes = overflowedNodes;
+            }
+            EnrichChunk chunk = new EnrichChunk(Math.max(1, nodes.size()));
+            for (TranslatedNode trNode : nodes)
+                dispatch(trNode.seq, trNode.node, trNode.x, trNode.y, chunk);
+            submit(chunk);
+            return;
+        }
+
+        if (notFound.contains(tm35MapSheet)) {
+            // Let the pending nodes through without z-tag
+            pending.forEach(tr -> emit(tr.seq, new NodeContainer(tr.node)));
+            if (overflowed)
+                drainOverflow(tm35MapSheet, (x, y, node) -> emit(0, new NodeContainer(node)));
+            return;
+        }
+
+        ElevationTile tile = ready.peek(tm35MapSheet);
+        if (tile == null || !tile.retain()) {
+            // The sheet has been loaded and evicted before its pending nodes
+            // got processed - reload it from tiff storage
+            if (!pending.isEmpty()) {
+                processing.put(tm35MapSheet, pending);
+                for (TranslatedNode trNode : pending) {
+                    pendingNodes++;
+                    pendingBytes += trNode.bytes;
+                }
+                metrics.pending(tm35MapSheet, pending.size());
+            }
+            submitTiffQuerying(tm35MapSheet);
+            return;
+        }
+
+        // The tile is retained for the whole sheet so adding to the chunks
+        // cannot fail even if the sheet gets evicted meanwhile
+        try {
+            EnrichChunk[] chunk = new EnrichChunk[] { new EnrichChunk(transformBatchSize) };
+            for (TranslatedNode trNode : pending) {
+                chunk[0].add(trNode.seq, trNode.node, trNode.x, trNode.y, tm35MapSheet, tile);
+                if (chunk[0].isFull()) {
+                    submit(chunk[0]);
+                    chunk[0] = new EnrichChunk(transformBatchSize);
+                }
+            }
+            if (overflowed) {
+                drainOverflow(tm35MapSheet, (x, y, node) -> {
+                    chunk[0].add(0, node, x, y, tm35MapSheet, tile);
+                    if (chunk[0].isFull()) {
+                        submit(chunk[0]);
+                        chunk[0] = new EnrichChunk(transformBatchSize);
+                    }
+                });
+            }
+            submit(chunk[0]);
+        } finally {
+            tile.release();
+        }
+    }
+
+    private void drainOverflow(int tm35MapSheet, SpilledNodeConsumer consumer) {
+        try {
+            overflow.drain(tm35MapSheet, consumer);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Could not read overflowed nodes of " + TM35Utils.sheetName(tm35MapSheet), e);
+        }
+    }
+
+    private void submitTiffQuerying(int tm35MapSheet) {
+        submitTiffQuerying(tm35MapSheet, false);
+    }
+
+    /**
+     * @param prefetch
+     *            <code>true</code> if no nodes are waiting for the sheet yet.
+     *            The sheet is then kept in the ready-map only if it fits
+     *            without evicting other sheets.
+     * @return <code>false</code> if the sheet is already being loaded
+     */
+    private boolean submitTiffQuerying(int tm35MapSheet, boolean prefetch) {
+        // Claim the sheet already on submit so that it is queued only once
+        if (!executorExecuting.add(tm35MapSheet))
+            return false;
+
+        tiffDownloaderService.submit(() -> {
+            try {
+                if (ready.containsKey(tm35MapSheet)) {
+                    LOGGER.info(TM35Utils.sheetName(tm35MapSheet) + " is already inside ready-map for processing!");
+                    return;
+                }
+
+                ElevationTile tile = loadTile(tm35MapSheet);
+                if (tile == null)
+                    // Let the pending nodes through without z-tag
+                    notFound.add(tm35MapSheet);
+                else if (!prefetch || ready.getBytes() + tile.sizeInBytes() <= ready.getMaxBytes())
+                    ready.put(tm35MapSheet, tile);
+                else
+                    // Downloaded and converted already - loaded again from
+                    // tiff storage once nodes hit the sheet
+                    tile.release();
+            } finally {
+                // Hand the pending nodes of the sheet to the pipeline thread
+                executorExecuting.remove(tm35MapSheet);
+                if (prefetch)
+                    pipelineTasks.add(() -> {
+                        prefetchInFlight--;
+                        processCompleted(tm35MapSheet);
+                        prefetchMore();
+                    });
+                else
+                    pipelineTasks.add(() -> processCompleted(tm35MapSheet));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Queues the map sheets intersecting the given WGS84 bounding box for
+     * download and conversion ahead of the nodes
+     */
+    private void prefetch(double left, double bottom, double right, double top) {
+        int[] sheets = TM35Utils.sheetsIntersecting(transform, left, bottom, right, top, scale);
+        if (sheets.length == 0) {
+            LOGGER.info("Bounding box is outside of the elevation data - nothing to prefetch");
+            return;
+        }
+        LOGGER.info("Prefetching " + sheets.length + " map sheets intersecting " + left + "," + bottom + ","
+                + right + "," + top);
+        for (int sheet : sheets)
+            prefetchQueue.add(sheet);
+        prefetchMore();
+    }
+
+    /**
+     * Keeps at most one prefetched sheet per downloader in flight so that
+     * sheets needed by the nodes don't queue behind the prefetch
+     */
+    private void prefetchMore() {
+        while (prefetchInFlight < DOWNLOADERS && !prefetchQueue.isEmpty()) {
+            int sheet = prefetchQueue.poll();
+            if (ready.containsKey(sheet) || notFound.contains(sheet))
+                continue;
+            if (submitTiffQuerying(sheet, true))
+                prefetchInFlight++;
+        }
+    }
+
+    /**
+     * Drops the sheets still queued for prefetch and waits for the ones in
+     * flight
+     */
+    private void awaitPrefetch() throws InterruptedException {
+        prefetchQueue.clear();
+        while (prefetchInFlight > 0)
+            pipelineTasks.take().run();
+    }
+
+    /**
+     * Downloads and loads the given map sheet retrying a few times if the
+     * tiff turns out to be corrupt
+     * 
+     * @param tm35MapSheet
+     *            map sheet
+     * @return the tile or <code>null</code> if the sheet is not available or
+     *         could not be loaded
+     */
+    private ElevationTile loadTile(int tm35MapSheet) {
+        return tileLoader.loadRetrying(sourceFor(tm35MapSheet), TM35Utils.sheetName(tm35MapSheet));
+    }
+
+    /**
+     * @return source of the given map sheet
+     */
+    private ElevationSource sourceFor(int tm35MapSheet) {
+        if (coarseSource != null && TM35Utils.scaleOf(tm35MapSheet) != SHEET_SCALE)
+            return coarseSource;
+        return source;
+    }
+
+    private final class EnrichChunk implements Runnable {
+
+        private final long[] seqs;
+        private final long[] ids;
+        private final Node[] nodes;
+        private final double[] xs;
+        private final double[] ys;
+        private final int[] sheets;
+        private final ElevationTile[] tiles;
+        private final float[] zs;
+        private final EntityContainer[] results;
+        private final List<ElevationTile> retained = new ArrayList<>(2);
+        private int size = 0;
+
+        EnrichChunk(int capacity) {
+            this.seqs = new long[capacity];
+            this.ids = new long[capacity];
+            this.nodes = new Node[capacity];
+            this.xs = new double[capacity];
+            this.ys = new double[capacity];
+            this.sheets = new int[capacity];
+            this.tiles = new ElevationTile[capacity];
+            this.zs = new float[capacity];
+            this.results = new EntityContainer[capacity];
+        }
+
+        /**
+         * @return <code>false</code> if the tile has been disposed in the
+         *         meantime and the node was not added
+         */
+        boolean add(long seq, Node node, double x, double y, int sheet, ElevationTile tile) {
+            // Keep the tile alive until the chunk is done even if it gets
+            // evicted from the ready-map
+            if (!retained.contains(tile)) {
+                if (!tile.retain())
+                    return false;
+                retained.add(tile);
+            }
+            seqs[size] = seq;
+            ids[size] = node.getId();
+            nodes[size] = node;
+            xs[size] = x;
+            ys[size] = y;
+            sheets[size] = sheet;
+            tiles[size] = tile;
+            size++;
+            return true;
+        }
+
+        boolean isFull() {
+            return size == nodes.length;
+        }
+
+        @Override
+        public void run() {
+            // One sampler per scale - the neighbours of a sheet are sheets of
+            // the same scale
+            TileSampler[] samplers = new TileSampler[SAMPLER_SCALES];
+            try {
+                for (int i = 0; i < size; i++) {
+                    Node node = nodes[i];
+                    zs[i] = Float.NaN;
+                    try {
+                        zs[i] = sampler(samplers, sheets[i]).sample(tiles[i], xs[i], ys[i]);
+                        node = enricher.enrich(node, zs[i]);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Could not add height to node " + node.getId(), e);
+                    }
+                    results[i] = new NodeContainer(node);
+                    nodes[i] = null;
+                    tiles[i] = null;
+                }
+            } finally {
+                retained.forEach(ElevationTile::release);
+                retained.clear();
+            }
+        }
+
+        private TileSampler sampler(TileSampler[] samplers, int sheet) {
+            TM35Scale sheetScale = TM35Utils.scaleOf(sheet);
+            TileSampler sampler = samplers[sheetScale.ordinal()];
+            if (sampler == null) {
+                sampler = new TileSampler(interpolation, sheetScale, NLSDEMTask.this::retainResident);
+                samplers[sheetScale.ordinal()] = sampler;
+            }
+            return sampler;
+        }
+    }
+
+    private static final class NLSTiffDownloaderFactory implements ThreadFactory {
+        private final String prefix;
+        private int counter = 0;
+
+        NLSTiffDownloaderFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, prefix + counter++);
+        }
+    }
+
+    private static class TranslatedNode {
+
+        private final long seq;
+        private final Node node;
+        private final double x;
+        private final double y;
+        // Rough estimate of the memory held by the pending node
+        private final int bytes;
+
+        TranslatedNode(long seq, Node node, double x, double y) {
+            this.seq = seq;
+            this.node = node;
+            this.x = x;
+            this.y = y;
+            this.bytes = PENDING_NODE_BYTES + PENDING_TAG_BYTES * node.getTags().size();
+        }
+    }
+
+}
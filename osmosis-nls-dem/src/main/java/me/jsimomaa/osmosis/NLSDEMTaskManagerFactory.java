@@ -0,0 +1,218 @@
+package me.jsimomaa.osmosis;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openstreetmap.osmosis.core.pipeline.common.TaskConfiguration;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskManager;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskManagerFactory;
+import org.openstreetmap.osmosis.core.pipeline.v0_6.SinkSourceManager;
+
+import me.jsimomaa.osmosis.source.ElevationSource;
+import me.jsimomaa.osmosis.source.LocalDirectorySource;
+import me.jsimomaa.osmosis.source.MosaicSource;
+import me.jsimomaa.osmosis.tile.Interpolation;
+import me.jsimomaa.osmosis.tile.Resolution;
+import me.jsimomaa.osmosis.tile.TileEncoding;
+import me.jsimomaa.osmosis.utils.DemProduct;
+import me.jsimomaa.osmosis.utils.NLSXMLClient;
+
+/**
+ * @author jsimomaa
+ *
+ */
+public class NLSDEMTaskManagerFactory extends TaskManagerFactory {
+
+    @Override
+    protected TaskManager createTaskManagerImpl(TaskConfiguration taskConfig) {
+        return new SinkSourceManager(taskConfig.getId(), createTask(taskConfig), taskConfig.getPipeArgs());
+    }
+
+    /**
+     * Creates the task from the arguments shared by the entity and change
+     * stream variants
+     *
+     * @param taskConfig
+     *            of the task
+     * @return configured task
+     */
+    protected NLSDEMTask createTask(TaskConfiguration taskConfig) {
+        String apiKey = taskConfig.getDefaultArg();
+        String sourceName = getStringArgument(taskConfig, "source", "nls");
+        String localDir = getStringArgument(taskConfig, "localDir", null);
+
+        String prjFile = getStringArgument(taskConfig, "prjFile");
+        String tiffStorage = getStringArgument(taskConfig, "tiffStorage", System.getProperty("java.io.tmpdir"));
+        String heightTags = getStringArgument(taskConfig, "heightTags", "");
+        String[] tags = heightTags.split(",");
+        boolean override = getBooleanArgument(taskConfig, "override", true);
+        int heightDecimals = getIntegerArgument(taskConfig, "heightDecimals", HeightFormat.SHORTEST);
+        boolean rawTiles = getBooleanArgument(taskConfig, "rawTiles", false);
+        TileEncoding tileEncoding = TileEncoding.parse(getStringArgument(taskConfig, "tileEncoding", "float32"));
+        boolean spill = getBooleanArgument(taskConfig, "spill", false);
+        String spillDirectory = getStringArgument(taskConfig, "spillDirectory", tiffStorage);
+        int spillBufferMb = getIntegerArgument(taskConfig, "spillBufferMb", 64);
+        int transformBatchSize = getIntegerArgument(taskConfig, "transformBatchSize",
+                NLSDEMTask.DEFAULT_TRANSFORM_BATCH_SIZE);
+        int localityWindow = getIntegerArgument(taskConfig, "localityWindow", 0);
+        int tileCacheMb = getIntegerArgument(taskConfig, "tileCacheMb", NLSDEMTask.DEFAULT_TILE_CACHE_MB);
+        int workers = getIntegerArgument(taskConfig, "workers", NLSDEMTask.DEFAULT_WORKERS);
+        boolean ordered = getBooleanArgument(taskConfig, "ordered", false);
+        int catalogMaxAgeHours = getIntegerArgument(taskConfig, "catalogMaxAgeHours",
+                (int) NLSXMLClient.DEFAULT_CATALOG_MAX_AGE.toHours());
+        if (catalogMaxAgeHours < 0)
+            throw new IllegalArgumentException("catalogMaxAgeHours cannot be negative! (" + catalogMaxAgeHours + ")");
+        int feedConcurrency = getIntegerArgument(taskConfig, "feedConcurrency", NLSXMLClient.DEFAULT_FEED_CONCURRENCY);
+        if (feedConcurrency < 1)
+            throw new IllegalArgumentException("feedConcurrency must be positive! (" + feedConcurrency + ")");
+        int progressInterval = getIntegerArgument(taskConfig, "progressInterval",
+                NLSDEMTask.DEFAULT_PROGRESS_INTERVAL_SECONDS);
+        boolean jmx = getBooleanArgument(taskConfig, "jmx", false);
+        boolean wayTags = getBooleanArgument(taskConfig, "wayTags", false);
+        String wayTagsDirectory = getStringArgument(taskConfig, "wayTagsDirectory", tiffStorage);
+        int wayTagsMemoryMb = getIntegerArgument(taskConfig, "wayTagsMemoryMb", 256);
+        boolean prefetch = getBooleanArgument(taskConfig, "prefetch", false);
+        String resultCache = getStringArgument(taskConfig, "resultCache", null);
+        boolean resultCacheCompact = getBooleanArgument(taskConfig, "resultCacheCompact", false);
+        if (resultCacheCompact && resultCache == null)
+            throw new IllegalArgumentException("resultCacheCompact requires resultCache!");
+        String bbox = getStringArgument(taskConfig, "bbox", null);
+        Interpolation interpolation = Interpolation.parse(getStringArgument(taskConfig, "interpolation", "nearest"));
+        Resolution resolution = Resolution.parse(getStringArgument(taskConfig, "resolution", "2m"));
+        String refineBbox = getStringArgument(taskConfig, "refineBbox", null);
+        String refineTags = getStringArgument(taskConfig, "refineTags", null);
+        if (resolution != Resolution.HYBRID && (refineBbox != null || refineTags != null))
+            throw new IllegalArgumentException("refineBbox and refineTags require resolution=hybrid!");
+        if (ordered && spill)
+            throw new IllegalArgumentException("ordered and spill cannot be used together!");
+        int maxPendingNodes = getIntegerArgument(taskConfig, "maxPendingNodes", 0);
+        int maxPendingMb = getIntegerArgument(taskConfig, "maxPendingMb", 0);
+        String pendingOverflow = getStringArgument(taskConfig, "pendingOverflow", "block");
+        if (!"block".equals(pendingOverflow) && !"spill".equals(pendingOverflow))
+            throw new IllegalArgumentException("pendingOverflow must be block or spill! (" + pendingOverflow + ")");
+        if (ordered && "spill".equals(pendingOverflow))
+            throw new IllegalArgumentException("ordered and pendingOverflow=spill cannot be used together!");
+        try {
+            // Base resolution of the task, 10 m in hybrid mode
+            DemProduct product = resolution.getProduct();
+            ElevationSource source;
+            ElevationSource coarse = null;
+            switch (sourceName) {
+            case "nls":
+                if (resolution == Resolution.HYBRID) {
+                    source = createNLSSource(apiKey, tiffStorage, catalogMaxAgeHours, feedConcurrency,
+                            DemProduct.HILA_2M);
+                    coarse = createNLSSource(apiKey, tiffStorage, catalogMaxAgeHours, feedConcurrency, product);
+                } else {
+                    source = createNLSSource(apiKey, tiffStorage, catalogMaxAgeHours, feedConcurrency, product);
+                }
+                break;
+            case "local":
+                if (localDir == null)
+                    throw new IllegalArgumentException("localDir is required with source=local!");
+                source = new LocalDirectorySource(Paths.get(localDir));
+                break;
+            case "mosaic":
+                if (localDir == null)
+                    throw new IllegalArgumentException("localDir is required with source=mosaic!");
+                List<ElevationSource> sources = localSources(localDir);
+                // Fall back to NLS for map sheets missing from the directories
+                if (resolution == Resolution.HYBRID) {
+                    List<ElevationSource> coarseSources = localSources(localDir);
+                    if (apiKey != null) {
+                        sources.add(createNLSSource(apiKey, tiffStorage, catalogMaxAgeHours, feedConcurrency,
+                                DemProduct.HILA_2M));
+                        coarseSources.add(createNLSSource(apiKey, tiffStorage, catalogMaxAgeHours,
+                                feedConcurrency, product));
+                    }
+                    coarse = new MosaicSource(coarseSources);
+                } else if (apiKey != null) {
+                    sources.add(createNLSSource(apiKey, tiffStorage, catalogMaxAgeHours, feedConcurrency, product));
+                }
+                source = new MosaicSource(sources);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown source " + sourceName + "! Use one of nls, local or mosaic");
+            }
+
+            NLSDEMTask task = new NLSDEMTask(source, prjFile != null ? new URI(prjFile) : null);
+            task.setOverrideExisting(override);
+            task.setHeightTags(tags);
+            task.setHeightDecimals(heightDecimals);
+            task.setTileCacheMb(tileCacheMb);
+            task.setRawTiles(rawTiles);
+            task.setTileEncoding(tileEncoding);
+            task.setTransformBatchSize(transformBatchSize);
+            task.setLocalityWindow(localityWindow);
+            task.setWorkers(workers);
+            task.setOrdered(ordered);
+            task.setInterpolation(interpolation);
+            task.setResolution(resolution, coarse);
+            if (refineBbox != null) {
+                List<double[]> areas = new ArrayList<>();
+                for (String box : refineBbox.split(";"))
+                    areas.add(parseBbox(box));
+                task.setRefineAreas(areas);
+            }
+            if (refineTags != null)
+                task.setRefineTags(refineTags.split(","));
+            task.setMaxPending(maxPendingNodes, maxPendingMb);
+            if ("spill".equals(pendingOverflow))
+                task.setPendingOverflow(spillDirectory, spillBufferMb);
+            task.setProgressInterval(progressInterval);
+            task.setJmx(jmx);
+            task.setPrefetch(prefetch);
+            if (bbox != null) {
+                double[] box = parseBbox(bbox);
+                task.setPrefetchBbox(box[0], box[1], box[2], box[3]);
+            }
+            if (resultCache != null)
+                task.setResultCache(resultCache);
+            task.setResultCacheCompact(resultCacheCompact);
+            if (wayTags)
+                task.setWayTags(wayTagsDirectory, wayTagsMemoryMb);
+            if (spill)
+                task.setSpill(spillDirectory, spillBufferMb);
+            return task;
+        } catch (URISyntaxException e) {
+            // This should never happen! still lets rethrow it
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static NLSXMLClient createNLSSource(String apiKey, String tiffStorage, int catalogMaxAgeHours,
+            int feedConcurrency, DemProduct product) {
+        if (apiKey == null)
+            throw new IllegalArgumentException("NLS API key is required! (apiKey)");
+        NLSXMLClient client = new NLSXMLClient(apiKey, tiffStorage, product);
+        client.setCatalogMaxAge(Duration.ofHours(catalogMaxAgeHours));
+        client.setFeedConcurrency(feedConcurrency);
+        return client;
+    }
+
+    private static List<ElevationSource> localSources(String localDir) {
+        List<ElevationSource> sources = new ArrayList<>();
+        for (String dir : localDir.split(","))
+            sources.add(new LocalDirectorySource(Paths.get(dir.trim())));
+        return sources;
+    }
+
+    private static double[] parseBbox(String bbox) {
+        String[] parts = bbox.split(",");
+        if (parts.length != 4)
+            throw new IllegalArgumentException("bbox must be given as left,bottom,right,top! (" + bbox + ")");
+        double[] box = new double[4];
+        try {
+            for (int i = 0; i < 4; i++)
+                box[i] = Double.parseDouble(parts[i].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bbox must be given as left,bottom,right,top! (" + bbox + ")", e);
+        }
+        return box;
+    }
+}
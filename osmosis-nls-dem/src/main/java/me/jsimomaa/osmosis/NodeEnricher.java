@@ -0,0 +1,102 @@
+package me.jsimomaa.osmosis;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+/**
+ * Rewrites the height tags of a node. Stateless apart from its configuration
+ * and thus safe to use from several threads at once.
+ * <br>
+ * <br>
+ * Called for every node of the input, so it avoids garbage: writeable nodes
+ * are modified in place instead of being copied, and the height tags are
+ * shared between nodes of the same height, see {@link HeightFormat}.
+ *
+ * @author jsimomaa
+ *
+ */
+public class NodeEnricher {
+
+    // Lower case keys of the existing height tags
+    private final Set<String> heightKeys = new HashSet<>();
+    private final boolean override;
+    private final HeightFormat format;
+
+    /**
+     * @param tags
+     *            tags to interpret as existing height tags
+     * @param override
+     *            should existing height tags be replaced
+     */
+    public NodeEnricher(String[] tags, boolean override) {
+        this(tags, override, HeightFormat.SHORTEST);
+    }
+
+    /**
+     * @param tags
+     *            tags to interpret as existing height tags, case-insensitive
+     * @param override
+     *            should existing height tags be replaced
+     * @param heightDecimals
+     *            amount of decimals of the height or
+     *            {@link HeightFormat#SHORTEST}
+     */
+    public NodeEnricher(String[] tags, boolean override, int heightDecimals) {
+        for (String tag : tags)
+            heightKeys.add(tag.toLowerCase(Locale.ROOT));
+        this.override = override;
+        this.format = new HeightFormat("z", heightDecimals);
+    }
+
+    /**
+     * @param node
+     *            to add the height to
+     * @param value
+     *            height of the node
+     * @return node with the z-tag, the given node itself if it is writeable,
+     *         or the given node as is if the height is {@link Float#NaN}
+     */
+    public Node enrich(Node node, float value) {
+        if (Float.isNaN(value))
+            // No elevation data for this point - pass the node as is
+            return node;
+
+        // look for existing height tag
+        Tag existingHeight = null;
+        if (!heightKeys.isEmpty()) {
+            for (Tag tag : node.getTags()) {
+                if (isHeightKey(tag.getKey()))
+                    existingHeight = tag;
+            }
+        }
+
+        // work with possible existing height tag
+        // check if it should be replaced or not
+        if (existingHeight != null && !override)
+            return node;
+
+        // Copied only if some other task holds on to the node too
+        Node enriched = node.getWriteableInstance();
+        Collection<Tag> tags = enriched.getTags();
+        if (existingHeight != null)
+            tags.remove(existingHeight);
+        tags.add(format.tag(value));
+        return enriched;
+    }
+
+    private boolean isHeightKey(String key) {
+        if (heightKeys.contains(key))
+            return true;
+        // Keys are mostly lower case already - only fold the others
+        for (int i = 0; i < key.length(); i++) {
+            if (Character.isUpperCase(key.charAt(i)))
+                return heightKeys.contains(key.toLowerCase(Locale.ROOT));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+package me.jsimomaa.osmosis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.CommonEntityData;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+import me.jsimomaa.osmosis.utils.NodeElevationIndex;
+
+/**
+ * Adds total ascent, total descent and maximum incline tags to a way from the
+ * elevations of its nodes. Nodes without elevation are skipped and the
+ * neighbouring nodes with elevation are treated as consecutive.
+ *
+ * @author jsimomaa
+ *
+ */
+public class WayEnricher {
+
+    public static final String ASCENT = "ascent";
+    public static final String DESCENT = "descent";
+    public static final String MAX_INCLINE = "max_incline";
+
+    private final NodeElevationIndex index;
+    private final boolean override;
+
+    /**
+     * @param index
+     *            elevations of the nodes
+     * @param override
+     *            should existing tags be replaced
+     */
+    public WayEnricher(NodeElevationIndex index, boolean override) {
+        this.index = index;
+        this.override = override;
+    }
+
+    /**
+     * @param way
+     *            to add the tags to
+     * @return new way with the tags or the given way if less than two of its
+     *         nodes have elevation
+     */
+    public Way enrich(Way way) {
+        double ascent = 0;
+        double descent = 0;
+        double maxIncline = 0;
+        int resolved = 0;
+        double px = 0;
+        double py = 0;
+        float pz = 0;
+        for (WayNode wayNode : way.getWayNodes()) {
+            long slot = index.find(wayNode.getNodeId());
+            if (slot == NodeElevationIndex.NOT_FOUND)
+                continue;
+            double x = index.x(slot);
+            double y = index.y(slot);
+            float z = index.z(slot);
+            if (resolved++ > 0) {
+                double dz = z - pz;
+                if (dz > 0)
+                    ascent += dz;
+                else
+                    descent -= dz;
+                double distance = Math.hypot(x - px, y - py);
+                if (distance > 0)
+                    maxIncline = Math.max(maxIncline, Math.abs(dz) / distance);
+            }
+            px = x;
+            py = y;
+            pz = z;
+        }
+        if (resolved < 2)
+            return way;
+
+        Collection<Tag> tags = new ArrayList<>(way.getTags());
+        putTag(tags, ASCENT, format(ascent));
+        putTag(tags, DESCENT, format(descent));
+        putTag(tags, MAX_INCLINE, format(maxIncline * 100) + "%");
+
+        CommonEntityData ced = new CommonEntityData(way.getId(), way.getVersion(), way.getTimestamp(),
+                way.getUser(), way.getChangesetId(), tags);
+        return new Way(ced, way.getWayNodes());
+    }
+
+    private void putTag(Collection<Tag> tags, String key, String value) {
+        for (Iterator<Tag> it = tags.iterator(); it.hasNext();) {
+            if (it.next().getKey().equalsIgnoreCase(key)) {
+                if (!override)
+                    return;
+                it.remove();
+            }
+        }
+        tags.add(new Tag(key, value));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
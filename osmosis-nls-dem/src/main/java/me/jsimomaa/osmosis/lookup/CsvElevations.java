@@ -0,0 +1,205 @@
+package me.jsimomaa.osmosis.lookup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import me.jsimomaa.osmosis.HeightFormat;
+
+/**
+ * Adds an elevation column to CSV streams of WGS84 points. The longitude and
+ * latitude columns are found from the header. Every line is passed on as is
+ * with the elevation appended, empty if there is no data for the point.
+ * <br>
+ * <br>
+ * Lines are looked up in batches so that memory use is bounded by the batch
+ * size regardless of the length of the stream. Each batch is flushed to the
+ * output once it is done.
+ *
+ * @author jsimomaa
+ *
+ */
+public class CsvElevations {
+
+    // Not x and y - those are usually TM35FIN metres in this context
+    private static final String[] LON_COLUMNS = { "lon", "lng", "long", "longitude" };
+    private static final String[] LAT_COLUMNS = { "lat", "latitude" };
+
+    private final ElevationLookup lookup;
+    private final char delimiter;
+    private final HeightFormat format;
+    private final int batchSize;
+
+    /**
+     * Columns of the points in a stream
+     */
+    public static final class Header {
+
+        private final String line;
+        private final int lonColumn;
+        private final int latColumn;
+
+        private Header(String line, int lonColumn, int latColumn) {
+            this.line = line;
+            this.lonColumn = lonColumn;
+            this.latColumn = latColumn;
+        }
+    }
+
+    /**
+     * @param lookup
+     *            of the elevations
+     * @param delimiter
+     *            of the fields
+     * @param format
+     *            of the elevations
+     * @param batchSize
+     *            amount of lines looked up at once
+     */
+    public CsvElevations(ElevationLookup lookup, char delimiter, HeightFormat format, int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive! (" + batchSize + ")");
+        this.lookup = lookup;
+        this.delimiter = delimiter;
+        this.format = format;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param line
+     *            first line of the stream
+     * @return columns of the points
+     * @throws IllegalArgumentException
+     *             if the longitude or latitude column is missing
+     */
+    public Header header(String line) {
+        if (line == null)
+            throw new IllegalArgumentException("CSV is empty - expected a header line!");
+        int lonColumn = -1;
+        int latColumn = -1;
+        for (int i = 0; ; i++) {
+            String name = field(line, i);
+            if (name == null)
+                break;
+            name = name.trim().toLowerCase(Locale.ROOT);
+            if (lonColumn < 0 && contains(LON_COLUMNS, name))
+                lonColumn = i;
+            else if (latColumn < 0 && contains(LAT_COLUMNS, name))
+                latColumn = i;
+        }
+        if (lonColumn < 0 || latColumn < 0)
+            throw new IllegalArgumentException(
+                    "CSV header must name a longitude (lon) and a latitude (lat) column! (" + line + ")");
+        return new Header(line, lonColumn, latColumn);
+    }
+
+    /**
+     * Writes the header and the lines following it with the elevations
+     *
+     * @param header
+     *            read from the stream
+     * @param in
+     *            the lines after the header
+     * @param out
+     *            for the lines with the elevations
+     * @return amount of points looked up
+     * @throws IOException
+     */
+    public long process(Header header, BufferedReader in, Writer out) throws IOException {
+        out.write(header.line);
+        out.write(delimiter);
+        out.write("z\n");
+
+        String[] lines = new String[batchSize];
+        double[] lonLat = new double[2 * batchSize];
+        float[] z = new float[batchSize];
+        long count = 0;
+        String line;
+        int size = 0;
+        while (true) {
+            line = in.readLine();
+            if (line != null && !line.isEmpty()) {
+                lines[size] = line;
+                lonLat[2 * size] = parse(field(line, header.lonColumn));
+                lonLat[2 * size + 1] = parse(field(line, header.latColumn));
+                size++;
+            }
+            if (size == batchSize || (line == null && size > 0)) {
+                lookup.lookup(lonLat, size, z);
+                for (int i = 0; i < size; i++) {
+                    out.write(lines[i]);
+                    out.write(delimiter);
+                    if (!Float.isNaN(z[i]))
+                        out.write(format.format(z[i]));
+                    out.write('\n');
+                    lines[i] = null;
+                }
+                out.flush();
+                count += size;
+                size = 0;
+            }
+            if (line == null)
+                break;
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * @return the field of the line without quotes or <code>null</code> if
+     *         the line has fewer fields
+     */
+    String field(String line, int index) {
+        int field = 0;
+        int i = 0;
+        while (i <= line.length()) {
+            StringBuilder value = field == index ? new StringBuilder() : null;
+            boolean quoted = i < line.length() && line.charAt(i) == '"';
+            if (quoted)
+                i++;
+            while (i < line.length()) {
+                char c = line.charAt(i);
+                if (quoted && c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        // Escaped quote
+                        if (value != null)
+                            value.append('"');
+                        i += 2;
+                        continue;
+                    }
+                    quoted = false;
+                } else if (!quoted && c == delimiter) {
+                    break;
+                } else if (value != null) {
+                    value.append(c);
+                }
+                i++;
+            }
+            if (value != null)
+                return value.toString();
+            field++;
+            // Past the delimiter
+            i++;
+        }
+        return null;
+    }
+
+    private static double parse(String value) {
+        if (value == null)
+            return Double.NaN;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String candidate : names) {
+            if (candidate.equals(name))
+                return true;
+        }
+        return false;
+    }
+}
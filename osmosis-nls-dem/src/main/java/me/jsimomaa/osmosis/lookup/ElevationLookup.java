@@ -0,0 +1,200 @@
+package me.jsimomaa.osmosis.lookup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import me.jsimomaa.osmosis.source.ElevationSource;
+import me.jsimomaa.osmosis.tile.ElevationTile;
+import me.jsimomaa.osmosis.tile.Interpolation;
+import me.jsimomaa.osmosis.tile.TileCache;
+import me.jsimomaa.osmosis.tile.TileLoader;
+import me.jsimomaa.osmosis.tile.TileSampler;
+import me.jsimomaa.osmosis.utils.TM35Utils;
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+/**
+ * Elevations of WGS84 points without Osmosis. Uses the same transform, map
+ * sheets, tile cache and sampling as {@link me.jsimomaa.osmosis.NLSDEMTask},
+ * and keeps the sheets cached between lookups.
+ * <br>
+ * <br>
+ * Safe to use from several threads at once. Each map sheet is loaded once,
+ * different sheets concurrently.
+ *
+ * @author jsimomaa
+ *
+ */
+public class ElevationLookup implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ElevationLookup.class.getName());
+
+    private final ElevationSource source;
+    private final TileLoader loader;
+    private final TM35Scale scale;
+    private final Interpolation interpolation;
+    private final MathTransform transform;
+
+    private final TileCache<ElevationTile> tiles;
+    private final Set<Integer> notFound = ConcurrentHashMap.newKeySet();
+    // One lock per sheet, kept as there are only a few thousand sheets
+    private final ConcurrentHashMap<Integer, Object> loadLocks = new ConcurrentHashMap<>();
+
+    /**
+     * @param source
+     *            of the map sheets, closed with the lookup
+     * @param loader
+     *            of the map sheets
+     * @param crs
+     *            EPSG:3067
+     * @param scale
+     *            of the map sheets of the source
+     * @param interpolation
+     *            method
+     * @param tileCacheBytes
+     *            memory budget for the loaded map sheets
+     */
+    public ElevationLookup(ElevationSource source, TileLoader loader, CoordinateReferenceSystem crs,
+            TM35Scale scale, Interpolation interpolation, long tileCacheBytes) {
+        this.source = source;
+        this.loader = loader;
+        this.scale = scale;
+        this.interpolation = interpolation;
+        try {
+            this.transform = CRS.findMathTransform(DefaultGeographicCRS.WGS84, crs);
+        } catch (FactoryException e) {
+            throw new IllegalArgumentException("Cannot transform from WGS84 to " + crs, e);
+        }
+        this.tiles = new TileCache<>(tileCacheBytes, ElevationTile::sizeInBytes, ElevationTile::release);
+    }
+
+    /**
+     * Looks up the elevations of a batch of points. The points are
+     * transformed with a single call and consecutive points on the same map
+     * sheet share the lookup of the sheet.
+     *
+     * @param lonLat
+     *            interleaved longitudes and latitudes in WGS84,
+     *            {@link Double#NaN} for points to skip
+     * @param count
+     *            amount of points
+     * @param z
+     *            receives the elevations, {@link Float#NaN} if there is no
+     *            data for the point
+     */
+    public void lookup(double[] lonLat, int count, float[] z) {
+        double[] xy = new double[2 * count];
+        try {
+            transform.transform(lonLat, 0, xy, 0, count);
+        } catch (TransformException e) {
+            // Some point of the batch is invalid - transform them one by one
+            for (int i = 0; i < count; i++)
+                transform(lonLat, xy, i);
+        }
+
+        TileSampler sampler = new TileSampler(interpolation, scale, this::retainResident);
+        ElevationTile tile = null;
+        int tileSheet = TM35Utils.NO_SHEET;
+        try {
+            for (int i = 0; i < count; i++) {
+                double x = xy[2 * i];
+                double y = xy[2 * i + 1];
+                int sheet = Double.isNaN(x) || Double.isNaN(y) ? TM35Utils.NO_SHEET
+                        : TM35Utils.sheetId(x, y, scale);
+                if (sheet != tileSheet) {
+                    if (tile != null)
+                        tile.release();
+                    tileSheet = sheet;
+                    tile = sheet != TM35Utils.NO_SHEET ? acquire(sheet) : null;
+                }
+                z[i] = tile != null ? sampler.sample(tile, x, y) : Float.NaN;
+            }
+        } finally {
+            if (tile != null)
+                tile.release();
+        }
+    }
+
+    /**
+     * @param lon
+     *            longitude in WGS84
+     * @param lat
+     *            latitude in WGS84
+     * @return elevation or {@link Float#NaN} if there is no data for the point
+     */
+    public float lookup(double lon, double lat) {
+        float[] z = new float[1];
+        lookup(new double[] { lon, lat }, 1, z);
+        return z[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        LOGGER.info("Tile cache: " + tiles);
+        tiles.clear();
+        source.close();
+    }
+
+    private void transform(double[] lonLat, double[] xy, int i) {
+        xy[2 * i] = Double.NaN;
+        xy[2 * i + 1] = Double.NaN;
+        double lon = lonLat[2 * i];
+        double lat = lonLat[2 * i + 1];
+        if (Double.isNaN(lon) || Double.isNaN(lat))
+            return;
+        DirectPosition2D ptDst = new DirectPosition2D();
+        try {
+            transform.transform(new DirectPosition2D(lon, lat), ptDst);
+            xy[2 * i] = ptDst.x;
+            xy[2 * i + 1] = ptDst.y;
+        } catch (TransformException e) {
+            LOGGER.log(Level.FINE, "Could not transform lat=" + lat + ", lon=" + lon, e);
+        }
+    }
+
+    /**
+     * @return the tile of the sheet retained for the caller, loaded if needed,
+     *         or <code>null</code> if the sheet is not available
+     */
+    private ElevationTile acquire(int sheet) {
+        ElevationTile tile = tiles.get(sheet);
+        if (tile != null && tile.retain())
+            return tile;
+        if (notFound.contains(sheet))
+            return null;
+        synchronized (loadLocks.computeIfAbsent(sheet, k -> new Object())) {
+            // Loaded by another thread in the meantime
+            tile = tiles.peek(sheet);
+            if (tile != null && tile.retain())
+                return tile;
+            if (notFound.contains(sheet))
+                return null;
+
+            tile = loader.loadRetrying(source, TM35Utils.sheetName(sheet));
+            if (tile == null) {
+                notFound.add(sheet);
+                return null;
+            }
+            // One reference for the cache, one for the caller
+            tile.retain();
+            tiles.put(sheet, tile);
+            return tile;
+        }
+    }
+
+    private ElevationTile retainResident(int sheet) {
+        ElevationTile tile = tiles.getIfPresent(sheet);
+        return tile != null && tile.retain() ? tile : null;
+    }
+}
@@ -0,0 +1,344 @@
+package me.jsimomaa.osmosis.lookup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.geotools.data.PrjFileReader;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import me.jsimomaa.osmosis.HeightFormat;
+import me.jsimomaa.osmosis.source.ElevationSource;
+import me.jsimomaa.osmosis.source.LocalDirectorySource;
+import me.jsimomaa.osmosis.source.MosaicSource;
+import me.jsimomaa.osmosis.tile.Interpolation;
+import me.jsimomaa.osmosis.tile.Resolution;
+import me.jsimomaa.osmosis.tile.TileEncoding;
+import me.jsimomaa.osmosis.tile.TileLoader;
+import me.jsimomaa.osmosis.tile.TileWarmup;
+import me.jsimomaa.osmosis.utils.DemProduct;
+import me.jsimomaa.osmosis.utils.NLSXMLClient;
+import me.jsimomaa.osmosis.utils.RateLimiter;
+import me.jsimomaa.osmosis.utils.TM35Utils;
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+/**
+ * Command line entry point for looking up the elevations of CSV point lists
+ * without Osmosis. Options are given as <code>key=value</code> like the
+ * options of the Osmosis task.
+ *
+ * <pre>
+ * java -jar osmosis-nls-dem.jar apiKey=&lt;api_key&gt; input=points.csv output=points-z.csv
+ * java -jar osmosis-nls-dem.jar source=local localDir=/data/dem serve=8080
+ * java -jar osmosis-nls-dem.jar apiKey=&lt;api_key&gt; warmup=true bbox=24.5,60.1,25.3,60.4 journal=warmup.log
+ * </pre>
+ *
+ * @author jsimomaa
+ *
+ */
+public final class ElevationLookupCli {
+
+    private static final Logger LOGGER = Logger.getLogger(ElevationLookupCli.class.getName());
+
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 2;
+    private static final int DEFAULT_WARMUP_CONCURRENCY = 4;
+
+    private static final Set<String> OPTIONS = new HashSet<>(Arrays.asList("apiKey", "source", "localDir",
+            "tiffStorage", "prjFile", "resolution", "interpolation", "tileCacheMb", "rawTiles", "tileEncoding",
+            "catalogMaxAgeHours", "feedConcurrency", "heightDecimals", "delimiter", "batchSize", "input", "output",
+            "serve", "host", "threads", "warmup", "bbox", "sheets", "concurrency", "requestsPerSecond", "journal"));
+
+    private static final String USAGE = "Usage: java -jar osmosis-nls-dem.jar [option=value ...]\n"
+            + "  Reads a CSV with lon and lat columns from input (default stdin) and writes it with\n"
+            + "  a z column to output (default stdout), or serves POST " + ElevationServer.PATH
+            + " on port serve.\n"
+            + "  With warmup=true downloads and converts the map sheets of bbox or sheets into tiffStorage.\n"
+            + "  Options: " + String.join(", ", OPTIONS);
+
+    private ElevationLookupCli() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        if (booleanOption(options, "warmup", false)) {
+            int failed = warmup(options);
+            if (failed > 0)
+                System.exit(1);
+            return;
+        }
+
+        ElevationLookup lookup = createLookup(options);
+        String delimiter = options.getOrDefault("delimiter", ",");
+        if (delimiter.length() != 1)
+            throw new IllegalArgumentException("delimiter must be a single character! (" + delimiter + ")");
+        CsvElevations csv = new CsvElevations(lookup, delimiter.charAt(0),
+                new HeightFormat("z", intOption(options, "heightDecimals", HeightFormat.SHORTEST)),
+                intOption(options, "batchSize", 1024));
+
+        if (options.containsKey("serve")) {
+            ElevationServer server = new ElevationServer(csv, options.getOrDefault("host", "127.0.0.1"),
+                    intOption(options, "serve", 0),
+                    intOption(options, "threads", Runtime.getRuntime().availableProcessors()));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                try {
+                    lookup.close();
+                } catch (IOException e) {
+                    LOGGER.warning("Could not close elevation source: " + e);
+                }
+            }));
+            server.start();
+            return;
+        }
+
+        String input = options.getOrDefault("input", "-");
+        String output = options.getOrDefault("output", "-");
+        try (ElevationLookup closing = lookup;
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        "-".equals(input) ? System.in : Files.newInputStream(Paths.get(input)),
+                        StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        "-".equals(output) ? System.out : Files.newOutputStream(Paths.get(output)),
+                        StandardCharsets.UTF_8))) {
+            long count = csv.process(csv.header(in.readLine()), in, out);
+            LOGGER.info("Looked up " + count + " points");
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("Expected option=value, got " + arg);
+            String key = arg.substring(0, eq);
+            if (!OPTIONS.contains(key))
+                throw new IllegalArgumentException("Unknown option " + key);
+            options.put(key, arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    /**
+     * @return amount of map sheets that could not be loaded
+     */
+    private static int warmup(Map<String, String> options) throws IOException, InterruptedException {
+        DemProduct product = product(options);
+        List<String> sheetNames = new ArrayList<>();
+        String sheets = options.get("sheets");
+        if (sheets != null) {
+            for (String sheetName : sheets.split(","))
+                if (!sheetName.trim().isEmpty())
+                    sheetNames.add(sheetName.trim());
+        }
+        CoordinateReferenceSystem crs = readCrs(options.get("prjFile"));
+        String bbox = options.get("bbox");
+        if (bbox != null) {
+            double[] box = parseBbox(bbox);
+            MathTransform transform;
+            try {
+                transform = CRS.findMathTransform(DefaultGeographicCRS.WGS84, crs);
+            } catch (FactoryException e) {
+                throw new IllegalArgumentException("Cannot transform from WGS84 to " + crs, e);
+            }
+            TM35Scale scale = product.getScale();
+            for (int sheet : TM35Utils.sheetsIntersecting(transform, box[0], box[1], box[2], box[3], scale))
+                sheetNames.add(TM35Utils.sheetName(sheet));
+        }
+        if (sheetNames.isEmpty())
+            throw new IllegalArgumentException("warmup requires bbox or sheets!");
+
+        String rate = options.get("requestsPerSecond");
+        RateLimiter limiter;
+        try {
+            limiter = rate == null ? new RateLimiter(DEFAULT_REQUESTS_PER_SECOND)
+                    : Double.parseDouble(rate) == 0 ? null : new RateLimiter(Double.parseDouble(rate));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("requestsPerSecond must be a number! (" + rate + ")", e);
+        }
+        String journal = options.get("journal");
+        try (ElevationSource source = createSource(options, product)) {
+            TileWarmup warmup = new TileWarmup(source, createLoader(options, crs),
+                    intOption(options, "concurrency", DEFAULT_WARMUP_CONCURRENCY), limiter,
+                    journal != null ? Paths.get(journal) : null);
+            return warmup.run(sheetNames);
+        }
+    }
+
+    private static ElevationLookup createLookup(Map<String, String> options) throws IOException {
+        DemProduct product = product(options);
+        ElevationSource source = createSource(options, product);
+        CoordinateReferenceSystem crs = readCrs(options.get("prjFile"));
+        Interpolation interpolation = Interpolation.parse(options.getOrDefault("interpolation", "nearest"));
+        long tileCacheBytes = intOption(options, "tileCacheMb", 1024) * 1024L * 1024L;
+        return new ElevationLookup(source, createLoader(options, crs), crs, product.getScale(), interpolation,
+                tileCacheBytes);
+    }
+
+    private static DemProduct product(Map<String, String> options) {
+        Resolution resolution = Resolution.parse(options.getOrDefault("resolution", "2m"));
+        if (resolution == Resolution.HYBRID)
+            throw new IllegalArgumentException("resolution=hybrid is only supported by the Osmosis task!");
+        return resolution.getProduct();
+    }
+
+    private static ElevationSource createSource(Map<String, String> options, DemProduct product) {
+        String apiKey = options.get("apiKey");
+        String localDir = options.get("localDir");
+        String sourceName = options.getOrDefault("source", "nls");
+        switch (sourceName) {
+        case "nls":
+            if (apiKey == null)
+                throw new IllegalArgumentException("NLS API key is required! (apiKey)");
+            return createNLSSource(options, product);
+        case "local":
+            if (localDir == null)
+                throw new IllegalArgumentException("localDir is required with source=local!");
+            return new LocalDirectorySource(Paths.get(localDir));
+        case "mosaic":
+            if (localDir == null)
+                throw new IllegalArgumentException("localDir is required with source=mosaic!");
+            List<ElevationSource> sources = new ArrayList<>();
+            for (String dir : localDir.split(","))
+                sources.add(new LocalDirectorySource(Paths.get(dir.trim())));
+            if (apiKey != null)
+                sources.add(createNLSSource(options, product));
+            return new MosaicSource(sources);
+        default:
+            throw new IllegalArgumentException("Unknown source " + sourceName + "! Use one of nls, local or mosaic");
+        }
+    }
+
+    private static TileLoader createLoader(Map<String, String> options, CoordinateReferenceSystem crs) {
+        return new TileLoader(crs, booleanOption(options, "rawTiles", false),
+                TileEncoding.parse(options.getOrDefault("tileEncoding", "float32")), new TileLoader.Listener() {
+
+                    @Override
+                    public void downloaded(long bytes, long nanos) {
+                        LOGGER.fine("Downloaded " + bytes + " bytes in " + nanos / 1000000 + " ms");
+                    }
+
+                    @Override
+                    public void decoded(long nanos) {
+                        LOGGER.fine("Decoded a map sheet in " + nanos / 1000000 + " ms");
+                    }
+
+                    @Override
+                    public void retried() {
+                    }
+                });
+    }
+
+    private static NLSXMLClient createNLSSource(Map<String, String> options, DemProduct product) {
+        NLSXMLClient client = new NLSXMLClient(options.get("apiKey"),
+                options.getOrDefault("tiffStorage", System.getProperty("java.io.tmpdir")), product);
+        int catalogMaxAgeHours = intOption(options, "catalogMaxAgeHours",
+                (int) NLSXMLClient.DEFAULT_CATALOG_MAX_AGE.toHours());
+        if (catalogMaxAgeHours < 0)
+            throw new IllegalArgumentException("catalogMaxAgeHours cannot be negative! (" + catalogMaxAgeHours + ")");
+        client.setCatalogMaxAge(Duration.ofHours(catalogMaxAgeHours));
+        int feedConcurrency = intOption(options, "feedConcurrency", NLSXMLClient.DEFAULT_FEED_CONCURRENCY);
+        if (feedConcurrency < 1)
+            throw new IllegalArgumentException("feedConcurrency must be positive! (" + feedConcurrency + ")");
+        client.setFeedConcurrency(feedConcurrency);
+        return client;
+    }
+
+    /**
+     * @param prjFile
+     *            <code>.prj</code>-file with WKT containing EPSG:3067 or
+     *            <code>null</code> for the one within the JAR
+     */
+    private static CoordinateReferenceSystem readCrs(String prjFile) throws IOException {
+        InputStream resource = null;
+        ReadableByteChannel channel;
+        if (prjFile != null) {
+            Path prj = Paths.get(prjFile);
+            if (!Files.isReadable(prj))
+                throw new IllegalArgumentException(
+                        ".prj file " + prjFile + " cannot be read. See that it exists and is readable!");
+            channel = FileChannel.open(prj, StandardOpenOption.READ);
+        } else {
+            resource = ElevationLookupCli.class.getResourceAsStream("/EPSG3067.prj");
+            channel = Channels.newChannel(resource);
+        }
+        PrjFileReader reader = new PrjFileReader(channel);
+        try {
+            return reader.getCoordinateReferenceSystem();
+        } finally {
+            reader.close();
+            if (resource != null)
+                resource.close();
+        }
+    }
+
+    private static double[] parseBbox(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4)
+            throw new IllegalArgumentException("bbox must be given as left,bottom,right,top! (" + value + ")");
+        double[] bbox = new double[4];
+        try {
+            for (int i = 0; i < 4; i++)
+                bbox[i] = Double.parseDouble(parts[i].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bbox must be given as left,bottom,right,top! (" + value + ")", e);
+        }
+        if (bbox[0] >= bbox[2] || bbox[1] >= bbox[3])
+            throw new IllegalArgumentException("bbox is empty! (" + value + ")");
+        return bbox;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be an integer! (" + value + ")", e);
+        }
+    }
+
+    private static boolean booleanOption(Map<String, String> options, String key, boolean defaultValue) {
+        String value = options.get(key);
+        if (value == null)
+            return defaultValue;
+        if (!"true".equals(value) && !"false".equals(value))
+            throw new IllegalArgumentException(key + " must be true or false! (" + value + ")");
+        return Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,110 @@
+package me.jsimomaa.osmosis.lookup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Small HTTP endpoint for batch lookups, meant for local use. A CSV posted
+ * to <code>/elevations</code> is streamed back with an elevation column, see
+ * {@link CsvElevations}. The map sheets stay cached between the requests.
+ *
+ * @author jsimomaa
+ *
+ */
+public class ElevationServer {
+
+    private static final Logger LOGGER = Logger.getLogger(ElevationServer.class.getName());
+
+    public static final String PATH = "/elevations";
+
+    private final CsvElevations csv;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param csv
+     *            processing the requests
+     * @param host
+     *            address to listen on
+     * @param port
+     *            to listen on
+     * @param threads
+     *            amount of requests served at once
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public ElevationServer(CsvElevations csv, String host, int port, int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Amount of threads must be positive! (" + threads + ")");
+        this.csv = csv;
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        LOGGER.info("Serving elevations at http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + PATH);
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "POST a CSV with lon and lat columns\n");
+                return;
+            }
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            CsvElevations.Header header;
+            try {
+                header = csv.header(in.readLine());
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+
+            // Streamed back batch by batch
+            exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                csv.process(header, in, out);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not serve " + exchange.getRequestURI(), e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package me.jsimomaa.osmosis.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies. Values are kept in microseconds in
+ * logarithmic buckets split into eight linear sub-buckets each, so the
+ * reported percentiles are within 12.5% of the recorded values.
+ *
+ * @author jsimomaa
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos
+     *            latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucket(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * @return current state of the histogram in milliseconds
+     */
+    public LatencySnapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return new LatencySnapshot(0, 0, 0, 0, 0, 0);
+        return new LatencySnapshot(total, sum.sum() / 1000.0 / Math.max(1, count.sum()),
+                percentile(snapshot, total, 0.5), percentile(snapshot, total, 0.9),
+                percentile(snapshot, total, 0.99), max.get() / 1000.0);
+    }
+
+    private static double percentile(long[] snapshot, long total, double quantile) {
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return middle(i) / 1000.0;
+        }
+        return middle(snapshot.length - 1) / 1000.0;
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return value in the middle of the bucket in microseconds
+     */
+    private static double middle(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return (double) ((SUB_BUCKETS + sub) * width) + width / 2.0;
+    }
+}
@@ -0,0 +1,359 @@
+package me.jsimomaa.osmosis.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import me.jsimomaa.osmosis.tile.TileLoader;
+
+/**
+ * Counters, gauges and latency histograms of a NLS DEM task. Registered as
+ * an MXBean under <code>me.jsimomaa.osmosis:type=NLSDEMTask</code> and
+ * optionally summarized into a periodic progress log line. Counters are
+ * updated from any thread, gauges are read from the task on demand.
+ *
+ * @author jsimomaa
+ *
+ */
+public class NLSDEMMetrics implements NLSDEMMetricsMXBean, TileLoader.Listener {
+
+    private static final Logger LOGGER = Logger.getLogger(NLSDEMMetrics.class.getName());
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    /**
+     * State of the task read by the metrics on demand
+     */
+    public interface Gauges {
+
+        int sheetsDownloading();
+
+        int sheetsReady();
+
+        int sheetsNotFound();
+
+        long cacheHits();
+
+        long cacheMisses();
+
+        /**
+         * @return retries done by the elevation source
+         */
+        long sourceRetries();
+    }
+
+    private final Gauges gauges;
+    private final IntFunction<String> sheetNames;
+
+    private final LongAdder nodesIn = new LongAdder();
+    private final LongAdder nodesOut = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder sheetSwitches = new LongAdder();
+    private final LatencyHistogram downloadLatency = new LatencyHistogram();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final Map<Integer, Integer> pendingPerSheet = new ConcurrentHashMap<>();
+
+    private volatile long startNanos = 0;
+
+    // Counters at the start of the current progress interval
+    private volatile long intervalNanos;
+    private long intervalNodesIn;
+    private long intervalNodesOut;
+    private long intervalBytes;
+    // Rates over the last completed progress interval
+    private volatile double nodesInRate;
+    private volatile double nodesOutRate;
+    private volatile double downloadRate;
+
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+
+    /**
+     * @param gauges
+     *            state of the task
+     * @param sheetNames
+     *            names of the map sheets by sheet id
+     */
+    public NLSDEMMetrics(Gauges gauges, IntFunction<String> sheetNames) {
+        this.gauges = gauges;
+        this.sheetNames = sheetNames;
+    }
+
+    /**
+     * Registers the metrics over JMX and starts the progress log
+     *
+     * @param jmx
+     *            should the metrics be registered over JMX
+     * @param progressIntervalSeconds
+     *            seconds between progress log lines, 0 disables the log
+     */
+    public synchronized void start(boolean jmx, int progressIntervalSeconds) {
+        if (jmx && objectName == null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(
+                        "me.jsimomaa.osmosis:type=NLSDEMTask,name=nls-dem-" + INSTANCES.incrementAndGet());
+                server.registerMBean(this, name);
+                objectName = name;
+                LOGGER.info("Metrics available over JMX as " + name);
+            } catch (JMException | SecurityException e) {
+                LOGGER.log(Level.WARNING, "Could not register metrics over JMX", e);
+            }
+        }
+        if (progressIntervalSeconds > 0 && reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "osmosis-nls-dem-progress");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(this::report, progressIntervalSeconds, progressIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the progress log and unregisters the metrics from JMX
+     */
+    public synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Could not unregister " + objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    public void nodeIn() {
+        if (startNanos == 0)
+            startNanos = System.nanoTime();
+        nodesIn.increment();
+    }
+
+    public void nodeOut() {
+        nodesOut.increment();
+    }
+
+    /**
+     * Called when a node is dispatched on a different map sheet than the
+     * node before it
+     */
+    public void sheetSwitch() {
+        sheetSwitches.increment();
+    }
+
+    /**
+     * @param sheetId
+     *            map sheet
+     * @param delta
+     *            change in the amount of nodes waiting for the sheet
+     */
+    public void pending(int sheetId, int delta) {
+        pendingPerSheet.merge(sheetId, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    /**
+     * @param bytes
+     *            size of the downloaded tiff
+     * @param nanos
+     *            time taken by the download
+     */
+    @Override
+    public void downloaded(long bytes, long nanos) {
+        downloads.increment();
+        downloadedBytes.add(bytes);
+        downloadLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos
+     *            time taken to decode the tiff of a map sheet
+     */
+    @Override
+    public void decoded(long nanos) {
+        decodeLatency.record(nanos);
+    }
+
+    @Override
+    public void retried() {
+        retries.increment();
+    }
+
+    /**
+     * Rolls the progress interval over and logs the progress
+     */
+    synchronized void report() {
+        long now = System.nanoTime();
+        long in = nodesIn.sum();
+        long out = nodesOut.sum();
+        long bytes = downloadedBytes.sum();
+        if (intervalNanos != 0) {
+            double seconds = Math.max(now - intervalNanos, 1) / 1e9;
+            nodesInRate = (in - intervalNodesIn) / seconds;
+            nodesOutRate = (out - intervalNodesOut) / seconds;
+            downloadRate = (bytes - intervalBytes) / seconds;
+        } else {
+            nodesInRate = getNodesInPerSecond();
+            nodesOutRate = getNodesOutPerSecond();
+            downloadRate = getDownloadBytesPerSecond();
+        }
+        intervalNanos = now;
+        intervalNodesIn = in;
+        intervalNodesOut = out;
+        intervalBytes = bytes;
+        LOGGER.info(progress());
+    }
+
+    /**
+     * @return one line summary of the metrics
+     */
+    public String progress() {
+        return String.format(
+                "Nodes in %d (%.0f/s), out %d (%.0f/s), pending %d on %d sheets | sheets downloading %d, ready %d, not found %d"
+                        + " | downloaded %d sheets, %.1f MB (%.2f MB/s, %s) | decode %s | cache hit %.1f%%"
+                        + " | %.1f nodes per sheet switch | retries %d",
+                getNodesIn(), getNodesInPerSecond(), getNodesOut(), getNodesOutPerSecond(), getPendingNodes(),
+                pendingPerSheet.size(), getSheetsDownloading(), getSheetsReady(), getSheetsNotFound(),
+                getDownloads(), getDownloadedBytes() / 1e6, getDownloadBytesPerSecond() / 1e6, getDownloadLatency(),
+                getDecodeLatency(), 100 * getCacheHitRatio(), getNodesPerSheetSwitch(), getRetries());
+    }
+
+    private boolean isReporting() {
+        return intervalNanos != 0;
+    }
+
+    private double sinceStart(long value) {
+        long start = startNanos;
+        if (start == 0)
+            return 0;
+        return value / (Math.max(System.nanoTime() - start, 1) / 1e9);
+    }
+
+    @Override
+    public long getNodesIn() {
+        return nodesIn.sum();
+    }
+
+    @Override
+    public long getNodesOut() {
+        return nodesOut.sum();
+    }
+
+    @Override
+    public double getNodesInPerSecond() {
+        return isReporting() ? nodesInRate : sinceStart(getNodesIn());
+    }
+
+    @Override
+    public double getNodesOutPerSecond() {
+        return isReporting() ? nodesOutRate : sinceStart(getNodesOut());
+    }
+
+    @Override
+    public long getPendingNodes() {
+        long pending = 0;
+        for (int count : pendingPerSheet.values())
+            pending += count;
+        return pending;
+    }
+
+    @Override
+    public Map<String, Integer> getPendingNodesPerSheet() {
+        Map<String, Integer> pending = new TreeMap<>();
+        pendingPerSheet.forEach((sheet, count) -> pending.put(sheetNames.apply(sheet), count));
+        return pending;
+    }
+
+    @Override
+    public int getSheetsDownloading() {
+        return gauges.sheetsDownloading();
+    }
+
+    @Override
+    public int getSheetsReady() {
+        return gauges.sheetsReady();
+    }
+
+    @Override
+    public int getSheetsNotFound() {
+        return gauges.sheetsNotFound();
+    }
+
+    @Override
+    public long getDownloads() {
+        return downloads.sum();
+    }
+
+    @Override
+    public long getDownloadedBytes() {
+        return downloadedBytes.sum();
+    }
+
+    @Override
+    public double getDownloadBytesPerSecond() {
+        return isReporting() ? downloadRate : sinceStart(getDownloadedBytes());
+    }
+
+    @Override
+    public LatencySnapshot getDownloadLatency() {
+        return downloadLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getDecodeLatency() {
+        return decodeLatency.snapshot();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return gauges.cacheHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return gauges.cacheMisses();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hits = getCacheHits();
+        long total = hits + getCacheMisses();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    @Override
+    public long getSheetSwitches() {
+        return sheetSwitches.sum();
+    }
+
+    @Override
+    public double getNodesPerSheetSwitch() {
+        long switches = getSheetSwitches();
+        return switches > 0 ? (double) getNodesIn() / switches : 0;
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum() + gauges.sourceRetries();
+    }
+}
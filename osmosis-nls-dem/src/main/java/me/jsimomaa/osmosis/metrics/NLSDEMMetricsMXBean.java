@@ -0,0 +1,80 @@
+package me.jsimomaa.osmosis.metrics;
+
+import java.util.Map;
+
+/**
+ * Runtime metrics of a running NLS DEM task exposed over JMX. Rates are over
+ * the last progress interval, or since the first node if the progress log is
+ * disabled.
+ *
+ * @author jsimomaa
+ *
+ */
+public interface NLSDEMMetricsMXBean {
+
+    long getNodesIn();
+
+    long getNodesOut();
+
+    double getNodesInPerSecond();
+
+    double getNodesOutPerSecond();
+
+    /**
+     * @return nodes waiting for their map sheet
+     */
+    long getPendingNodes();
+
+    /**
+     * @return nodes waiting for their map sheet by map sheet
+     */
+    Map<String, Integer> getPendingNodesPerSheet();
+
+    /**
+     * @return map sheets being downloaded or decoded
+     */
+    int getSheetsDownloading();
+
+    /**
+     * @return map sheets in the tile cache
+     */
+    int getSheetsReady();
+
+    int getSheetsNotFound();
+
+    long getDownloads();
+
+    long getDownloadedBytes();
+
+    double getDownloadBytesPerSecond();
+
+    LatencySnapshot getDownloadLatency();
+
+    /**
+     * @return time spent decoding the tiffs of the map sheets
+     */
+    LatencySnapshot getDecodeLatency();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRatio();
+
+    /**
+     * @return times a node was dispatched on a different map sheet than the
+     *         node before it
+     */
+    long getSheetSwitches();
+
+    /**
+     * @return average run of consecutive nodes dispatched on the same map
+     *         sheet, raised by <code>localityWindow</code>
+     */
+    double getNodesPerSheetSwitch();
+
+    /**
+     * @return retried map sheet loads, downloads and feed requests
+     */
+    long getRetries();
+}
@@ -0,0 +1,61 @@
+package me.jsimomaa.osmosis.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Provides the GeoTIFFs of the NLS elevation model by TM35 map sheet name.
+ * Converted raw tiles are looked up next to the tiff location, so a source
+ * may also serve sheets for which only the raw tile exists.
+ * <br>
+ * <br>
+ * Implementations must be thread-safe.
+ *
+ * @author jsimomaa
+ *
+ */
+public interface ElevationSource extends Closeable {
+
+    /**
+     * Resolves where the tiff of the given map sheet is stored without
+     * fetching it. The tiff itself doesn't need to exist yet.
+     * 
+     * @param sheetName
+     *            map sheet, e.g. <code>L4132E</code>
+     * @return location of the tiff or <code>null</code> if the map sheet is
+     *         not available
+     */
+    Path getTiffLocation(String sheetName);
+
+    /**
+     * Fetches the tiff of the given map sheet if needed
+     * 
+     * @param sheetName
+     *            map sheet, e.g. <code>L4132E</code>
+     * @return the tiff or <code>null</code> if the map sheet is not available
+     * @throws IOException
+     *             if the tiff cannot be fetched
+     */
+    Path getTiff(String sheetName) throws IOException;
+
+    /**
+     * Called when the tiff of a map sheet turned out to be unreadable.
+     * Sources that can fetch the tiff again should remove it so that the
+     * next {@link #getTiff(String)} gets a fresh copy.
+     * 
+     * @param sheetName
+     *            map sheet
+     * @param tiff
+     *            the unreadable tiff
+     * @throws IOException
+     */
+    void discard(String sheetName, Path tiff) throws IOException;
+
+    /**
+     * @return amount of requests the source has retried so far
+     */
+    default long getRetries() {
+        return 0;
+    }
+}
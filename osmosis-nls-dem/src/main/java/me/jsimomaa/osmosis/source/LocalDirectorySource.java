@@ -0,0 +1,96 @@
+package me.jsimomaa.osmosis.source;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Serves map sheets from a pre-populated directory without network access.
+ * The directory is scanned recursively once for GeoTIFFs
+ * (<code>L4132E.tif</code>) and converted raw tiles (<code>L4132E.dem</code>)
+ * named after their map sheet.
+ * <br>
+ * <br>
+ * The directory is never modified apart from raw tiles converted next to the
+ * tiffs when the directory is writable.
+ *
+ * @author jsimomaa
+ *
+ */
+public class LocalDirectorySource implements ElevationSource {
+
+    private static final Logger LOGGER = Logger.getLogger(LocalDirectorySource.class.getName());
+
+    private final Path directory;
+    private final Map<String, Path> tiffs = new HashMap<>();
+
+    /**
+     * @param directory
+     *            directory holding the map sheets
+     */
+    public LocalDirectorySource(Path directory) {
+        if (!Files.isDirectory(directory))
+            throw new IllegalArgumentException(directory + " is not a directory!");
+        this.directory = directory;
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile).forEach(this::index);
+        } catch (IOException | UncheckedIOException e) {
+            throw new IllegalArgumentException("Could not scan " + directory, e);
+        }
+        LOGGER.info("Found " + tiffs.size() + " map sheets under " + directory);
+    }
+
+    private void index(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0)
+            return;
+        String sheetName = name.substring(0, dot).toUpperCase(Locale.ROOT);
+        switch (name.substring(dot + 1).toLowerCase(Locale.ROOT)) {
+        case "tif":
+        case "tiff":
+            tiffs.put(sheetName, file);
+            break;
+        case "dem":
+            // Raw tiles are looked up next to the tiff - the tiff itself may
+            // be missing
+            tiffs.putIfAbsent(sheetName, file.resolveSibling(name.substring(0, dot) + ".tif"));
+            break;
+        default:
+            break;
+        }
+    }
+
+    @Override
+    public Path getTiffLocation(String sheetName) {
+        return tiffs.get(sheetName);
+    }
+
+    @Override
+    public Path getTiff(String sheetName) {
+        Path tiff = tiffs.get(sheetName);
+        return tiff != null && Files.exists(tiff) ? tiff : null;
+    }
+
+    @Override
+    public void discard(String sheetName, Path tiff) {
+        // Can't be fetched again - leave it for the owner of the directory
+        LOGGER.warning(tiff + " of map sheet " + sheetName + " is unreadable!");
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+}
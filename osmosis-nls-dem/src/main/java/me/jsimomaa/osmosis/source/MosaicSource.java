@@ -0,0 +1,82 @@
+package me.jsimomaa.osmosis.source;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines several sources. Each map sheet is served by the first source
+ * that has it.
+ *
+ * @author jsimomaa
+ *
+ */
+public class MosaicSource implements ElevationSource {
+
+    private final List<ElevationSource> sources;
+
+    /**
+     * @param sources
+     *            in order of preference
+     */
+    public MosaicSource(List<ElevationSource> sources) {
+        if (sources.isEmpty())
+            throw new IllegalArgumentException("Mosaic needs at least one source!");
+        this.sources = new ArrayList<>(sources);
+    }
+
+    @Override
+    public Path getTiffLocation(String sheetName) {
+        for (ElevationSource source : sources) {
+            Path location = source.getTiffLocation(sheetName);
+            if (location != null)
+                return location;
+        }
+        return null;
+    }
+
+    @Override
+    public Path getTiff(String sheetName) throws IOException {
+        for (ElevationSource source : sources) {
+            if (source.getTiffLocation(sheetName) != null)
+                return source.getTiff(sheetName);
+        }
+        return null;
+    }
+
+    @Override
+    public void discard(String sheetName, Path tiff) throws IOException {
+        for (ElevationSource source : sources) {
+            if (tiff.equals(source.getTiffLocation(sheetName))) {
+                source.discard(sheetName, tiff);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getRetries() {
+        long retries = 0;
+        for (ElevationSource source : sources)
+            retries += source.getRetries();
+        return retries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ElevationSource source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
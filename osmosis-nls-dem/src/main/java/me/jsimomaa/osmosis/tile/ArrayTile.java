@@ -0,0 +1,86 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.Envelope2D;
+
+/**
+ * {@link ElevationTile} backed by a float array on the heap
+ *
+ * @author jsimomaa
+ *
+ */
+public class ArrayTile extends ElevationTile {
+
+    private final float[] data;
+
+    public ArrayTile(int width, int height, double originX, double originY, double cellWidth, double cellHeight,
+            float[] data) {
+        super(width, height, originX, originY, cellWidth, cellHeight);
+        if (data.length != width * height)
+            throw new IllegalArgumentException(
+                    "Expected " + (width * height) + " cells for " + width + "x" + height + " grid, got " + data.length);
+        this.data = data;
+    }
+
+    /**
+     * Copies the first band of the coverage into a new tile. No data values
+     * of the coverage are converted to {@link Float#NaN}.
+     *
+     * @param gc
+     *            coverage in EPSG:3067
+     * @return new tile
+     */
+    public static ArrayTile fromCoverage(GridCoverage2D gc) {
+        RenderedImage image = gc.getRenderedImage();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(), width, height);
+
+        float[] data = new float[width * height];
+        float[] buffer = null;
+        for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+            for (int tx = image.getMinTileX(); tx < image.getMinTileX() + image.getNumXTiles(); tx++) {
+                Raster raster = image.getTile(tx, ty);
+                Rectangle r = raster.getBounds().intersection(bounds);
+                if (r.isEmpty())
+                    continue;
+                if (buffer == null || buffer.length < r.width * r.height)
+                    buffer = new float[r.width * r.height];
+                raster.getSamples(r.x, r.y, r.width, r.height, 0, buffer);
+                for (int row = 0; row < r.height; row++)
+                    System.arraycopy(buffer, row * r.width, data,
+                            (r.y - bounds.y + row) * width + (r.x - bounds.x), r.width);
+            }
+        }
+
+        GridSampleDimension band = gc.getSampleDimension(0);
+        double[] noData = band != null ? band.getNoDataValues() : null;
+        if (noData != null) {
+            for (double nd : noData) {
+                float value = (float) nd;
+                for (int i = 0; i < data.length; i++)
+                    if (data[i] == value)
+                        data[i] = Float.NaN;
+            }
+        }
+
+        Envelope2D envelope = gc.getEnvelope2D();
+        return new ArrayTile(width, height, envelope.getMinX(), envelope.getMaxY(), envelope.getWidth() / width,
+                envelope.getHeight() / height, data);
+    }
+
+    @Override
+    public float get(int col, int row) {
+        return data[row * width + col];
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return 4L * data.length;
+    }
+}
@@ -0,0 +1,126 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Regular elevation grid of a single map sheet in EPSG:3067. Cells are
+ * addressed from the north-west corner of the sheet, rows grow southwards.
+ * Cells without data are {@link Float#NaN}.
+ * <br>
+ * <br>
+ * Tiles are reference counted so that they can be shared between threads and
+ * evicted from a cache while still in use. A new tile holds a single
+ * reference owned by its creator.
+ *
+ * @author jsimomaa
+ *
+ */
+public abstract class ElevationTile {
+
+    protected final int width;
+    protected final int height;
+    protected final double originX;
+    protected final double originY;
+    protected final double cellWidth;
+    protected final double cellHeight;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    protected ElevationTile(int width, int height, double originX, double originY, double cellWidth,
+            double cellHeight) {
+        this.width = width;
+        this.height = height;
+        this.originX = originX;
+        this.originY = originY;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+    }
+
+    /**
+     * @param col
+     *            column of the cell, 0 is the western edge
+     * @param row
+     *            row of the cell, 0 is the northern edge
+     * @return elevation of the cell or {@link Float#NaN} if there is no data
+     */
+    public abstract float get(int col, int row);
+
+    /**
+     * @return approximate amount of memory held by this tile
+     */
+    public abstract long sizeInBytes();
+
+    /**
+     * Acquires a reference to this tile. Every successful call must be paired
+     * with a {@link #release()}.
+     *
+     * @return <code>false</code> if the tile has already been disposed
+     */
+    public boolean retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current <= 0)
+                return false;
+        } while (!references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference to this tile and disposes the tile when the last
+     * reference is gone
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0)
+            dispose();
+    }
+
+    /**
+     * Releases the resources held by this tile. Called once the last
+     * reference has been released.
+     */
+    protected void dispose() {
+    }
+
+    /**
+     * Samples the cell containing the given point
+     *
+     * @param x
+     *            easting in EPSG:3067
+     * @param y
+     *            northing in EPSG:3067
+     * @return elevation or {@link Float#NaN} if the point is outside of the
+     *         tile or there is no data
+     */
+    public float sample(double x, double y) {
+        double col = (x - originX) / cellWidth;
+        double row = (originY - y) / cellHeight;
+        if (col < 0 || row < 0 || col >= width || row >= height)
+            return Float.NaN;
+        return get((int) col, (int) row);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    public double getCellWidth() {
+        return cellWidth;
+    }
+
+    public double getCellHeight() {
+        return cellHeight;
+    }
+}
@@ -0,0 +1,40 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.util.Locale;
+
+/**
+ * Interpolation methods supported by {@link TileSampler}
+ *
+ * @author jsimomaa
+ *
+ */
+public enum Interpolation {
+    /**
+     * Elevation of the cell containing the point
+     */
+    NEAREST,
+    /**
+     * Weighted average of the four closest cell centers
+     */
+    BILINEAR,
+    /**
+     * Cubic convolution over the 4x4 closest cell centers
+     */
+    BICUBIC;
+
+    /**
+     * @param name
+     *            of the interpolation method, case-insensitive
+     * @return the interpolation method
+     * @throws IllegalArgumentException
+     *             if the method is not supported
+     */
+    public static Interpolation parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Unsupported interpolation " + name + "! Use one of nearest, bilinear or bicubic", e);
+        }
+    }
+}
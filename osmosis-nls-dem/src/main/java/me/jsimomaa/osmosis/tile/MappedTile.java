@@ -0,0 +1,34 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ElevationTile} reading its cells straight from a memory-mapped
+ * {@link RawTiles raw tile file}. The cells live in the OS page cache instead
+ * of the Java heap.
+ *
+ * @author jsimomaa
+ *
+ */
+public class MappedTile extends ElevationTile {
+
+    private final ByteBuffer buffer;
+    private final int dataOffset;
+
+    MappedTile(int width, int height, double originX, double originY, double cellWidth, double cellHeight,
+            ByteBuffer buffer, int dataOffset) {
+        super(width, height, originX, originY, cellWidth, cellHeight);
+        this.buffer = buffer;
+        this.dataOffset = dataOffset;
+    }
+
+    @Override
+    public float get(int col, int row) {
+        return buffer.getFloat(dataOffset + ((row * width + col) << 2));
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return buffer.capacity();
+    }
+}
@@ -0,0 +1,87 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ElevationTile} storing decimetre elevations packed in blocks of
+ * 16x16 cells. Each block stores its cells as deltas from the lowest cell of
+ * the block using only as many bits as the relief within the block needs,
+ * typically 6-9 bits per cell on the 2 m model. Cells stay randomly
+ * accessible: a sample reads one directory entry and one word of the block.
+ * <br>
+ * <br>
+ * Elevations are quantized exactly like in {@link QuantizedTile}, so the
+ * error bound of 0.05 m is the same. The buffer is laid out as
+ *
+ * <pre>
+ * directory, 8 bytes for every block row by row:
+ *   int   offset of the block from the start of the blocks
+ *   short lowest elevation of the block in decimetres
+ *   byte  bits per cell, 0 if every cell of the block is the same
+ *   byte  1 if the highest code of the block marks cells without data
+ * blocks, 32 * bits bytes each
+ * 8 bytes of padding
+ * </pre>
+ *
+ * Cells of a block are packed row by row, least significant bits first.
+ * Blocks on the southern and eastern edges are padded to full size by
+ * repeating the edge cells.
+ *
+ * @author jsimomaa
+ *
+ */
+public class PackedTile extends ElevationTile {
+
+    static final int BLOCK_SHIFT = 4;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    static final int BLOCK_CELLS = BLOCK_SIZE * BLOCK_SIZE;
+    static final int ENTRY_SIZE = 8;
+    static final int PADDING = 8;
+
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private final ByteBuffer buffer;
+    private final int directoryOffset;
+    private final int blocksOffset;
+    private final int blocksX;
+
+    PackedTile(int width, int height, double originX, double originY, double cellWidth, double cellHeight,
+            ByteBuffer buffer, int dataOffset) {
+        super(width, height, originX, originY, cellWidth, cellHeight);
+        this.buffer = buffer;
+        this.directoryOffset = dataOffset;
+        this.blocksX = blocks(width);
+        this.blocksOffset = dataOffset + ENTRY_SIZE * blocksX * blocks(height);
+    }
+
+    /**
+     * @param cells
+     *            along one axis
+     * @return amount of blocks needed to cover the cells
+     */
+    static int blocks(int cells) {
+        return (cells + BLOCK_MASK) >> BLOCK_SHIFT;
+    }
+
+    @Override
+    public float get(int col, int row) {
+        int entry = directoryOffset + ENTRY_SIZE * ((row >> BLOCK_SHIFT) * blocksX + (col >> BLOCK_SHIFT));
+        int base = buffer.getShort(entry + 4);
+        int bits = buffer.get(entry + 6);
+        if (bits == 0)
+            return QuantizedTile.dequantize(base);
+
+        int bit = (((row & BLOCK_MASK) << BLOCK_SHIFT) | (col & BLOCK_MASK)) * bits;
+        long word = buffer.getLong(blocksOffset + buffer.getInt(entry) + (bit >>> 3));
+        int mask = (1 << bits) - 1;
+        int code = (int) (word >>> (bit & 7)) & mask;
+        if (code == mask && buffer.get(entry + 7) != 0)
+            return Float.NaN;
+        return (base + code) / 10f;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return buffer.capacity();
+    }
+}
@@ -0,0 +1,77 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ElevationTile} storing every cell as a 16-bit elevation in
+ * decimetres, half the size of a float grid. The buffer may live on the heap
+ * or be memory-mapped from a {@link RawTiles raw tile file}.
+ * <br>
+ * <br>
+ * Elevations are rounded to the nearest decimetre, so a sampled cell differs
+ * from the GeoTIFF by at most 0.05 m - well below the vertical accuracy of
+ * the NLS elevation models. Elevations between -3276.7 m and 3276.7 m can be
+ * stored, sheets beyond that are kept as floats.
+ *
+ * @author jsimomaa
+ *
+ */
+public class QuantizedTile extends ElevationTile {
+
+    /**
+     * Stored in place of cells without data
+     */
+    static final short NO_DATA = Short.MIN_VALUE;
+
+    private static final float MAX_ELEVATION = Short.MAX_VALUE / 10f;
+
+    private final ByteBuffer buffer;
+    private final int dataOffset;
+
+    QuantizedTile(int width, int height, double originX, double originY, double cellWidth, double cellHeight,
+            ByteBuffer buffer, int dataOffset) {
+        super(width, height, originX, originY, cellWidth, cellHeight);
+        this.buffer = buffer;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * @param elevation
+     *            in meters or {@link Float#NaN}
+     * @return <code>true</code> if the elevation can be stored in decimetres
+     */
+    static boolean isQuantizable(float elevation) {
+        return Float.isNaN(elevation) || Math.abs(elevation) <= MAX_ELEVATION;
+    }
+
+    /**
+     * @param elevation
+     *            in meters or {@link Float#NaN}, see
+     *            {@link #isQuantizable(float)}
+     * @return elevation in decimetres or {@link #NO_DATA}
+     */
+    static short quantize(float elevation) {
+        if (Float.isNaN(elevation))
+            return NO_DATA;
+        return (short) Math.round(elevation * 10.0);
+    }
+
+    /**
+     * @param decimetres
+     *            quantized elevation
+     * @return elevation in meters or {@link Float#NaN}
+     */
+    static float dequantize(int decimetres) {
+        return decimetres == NO_DATA ? Float.NaN : decimetres / 10f;
+    }
+
+    @Override
+    public float get(int col, int row) {
+        return dequantize(buffer.getShort(dataOffset + ((row * width + col) << 1)));
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return buffer.capacity();
+    }
+}
@@ -0,0 +1,345 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reading and writing of raw tile files. A raw tile is a flat little-endian
+ * grid with a fixed size header:
+ *
+ * <pre>
+ * int    magic ("NLSD")
+ * short  version
+ * short  data type (1 = float32, 2 = int16 decimetres, 3 = packed decimetres)
+ * int    width
+ * int    height
+ * double origin x (west edge)
+ * double origin y (north edge)
+ * double cell width
+ * double cell height
+ * ...    padding up to {@link #HEADER_SIZE} bytes
+ * </pre>
+ *
+ * followed by the cells row by row starting from the north-west corner, or
+ * by the blocks of a {@link PackedTile}. See {@link TileEncoding} for the
+ * encodings.
+ *
+ * @author jsimomaa
+ *
+ */
+public class RawTiles {
+
+    public static final String SUFFIX = ".dem";
+
+    static final int MAGIC = 0x4E4C5344;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private RawTiles() {
+    }
+
+    /**
+     * @param tiff
+     *            location of the GeoTIFF the raw tile is converted from
+     * @return location of the raw tile next to the GeoTIFF
+     */
+    public static Path rawPathFor(Path tiff) {
+        String name = tiff.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return tiff.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + SUFFIX);
+    }
+
+    /**
+     * Writes the tile into the given location as floats
+     *
+     * @param tile
+     *            to write
+     * @param target
+     *            location of the raw tile
+     * @throws IOException
+     * @see #write(ElevationTile, Path, TileEncoding)
+     */
+    public static void write(ElevationTile tile, Path target) throws IOException {
+        write(tile, target, TileEncoding.FLOAT32);
+    }
+
+    /**
+     * Writes the tile into the given location. The file is first written
+     * under a temporary name and then moved into place so that a partially
+     * written raw tile is never visible. Tiles with elevations that cannot be
+     * quantized are written as floats.
+     *
+     * @param tile
+     *            to write
+     * @param target
+     *            location of the raw tile
+     * @param encoding
+     *            of the cells
+     * @throws IOException
+     */
+    public static void write(ElevationTile tile, Path target, TileEncoding encoding) throws IOException {
+        if (encoding != TileEncoding.FLOAT32 && !isQuantizable(tile))
+            encoding = TileEncoding.FLOAT32;
+
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (encoding == TileEncoding.FLOAT32) {
+                // Streamed row by row, a float sheet is large
+                ByteBuffer header = header(tile, encoding);
+                header.clear();
+                writeFully(channel, header);
+
+                int width = tile.getWidth();
+                ByteBuffer row = ByteBuffer.allocate(width * 4).order(ByteOrder.LITTLE_ENDIAN);
+                for (int r = 0; r < tile.getHeight(); r++) {
+                    row.clear();
+                    for (int c = 0; c < width; c++)
+                        row.putFloat(tile.get(c, r));
+                    row.flip();
+                    writeFully(channel, row);
+                }
+            } else {
+                ByteBuffer encoded = toBuffer(tile, encoding);
+                encoded.clear();
+                writeFully(channel, encoded);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps the raw tile into memory
+     *
+     * @param raw
+     *            location of the raw tile
+     * @return tile sampling straight from the mapped file
+     * @throws IOException
+     *             if the file cannot be read or is not a valid raw tile
+     */
+    public static ElevationTile map(Path raw) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(raw, StandardOpenOption.READ)) {
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        return wrap(buffer, raw.toString());
+    }
+
+    /**
+     * Encodes the tile into a new tile on the heap. Tiles with elevations
+     * that cannot be quantized are kept as floats.
+     *
+     * @param tile
+     *            to encode
+     * @param encoding
+     *            of the cells
+     * @return the given tile itself for {@link TileEncoding#FLOAT32} or
+     *         unquantizable tiles, otherwise a new tile
+     */
+    public static ElevationTile encode(ElevationTile tile, TileEncoding encoding) {
+        if (encoding == TileEncoding.FLOAT32 || !isQuantizable(tile))
+            return tile;
+        try {
+            return wrap(toBuffer(tile, encoding), "Encoded tile");
+        } catch (IOException e) {
+            // Encoded right above
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ElevationTile wrap(ByteBuffer buffer, String name) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException(name + " is not a raw tile file!");
+
+        short version = buffer.getShort(4);
+        short type = buffer.getShort(6);
+        TileEncoding encoding = TileEncoding.ofType(type);
+        if (version != VERSION || encoding == null)
+            throw new IOException("Unsupported raw tile " + name + " (version=" + version + ", type=" + type + ")");
+
+        int width = buffer.getInt(8);
+        int height = buffer.getInt(12);
+        double originX = buffer.getDouble(16);
+        double originY = buffer.getDouble(24);
+        double cellWidth = buffer.getDouble(32);
+        double cellHeight = buffer.getDouble(40);
+        switch (encoding) {
+        case FLOAT32:
+            if ((long) HEADER_SIZE + 4L * width * height != buffer.capacity())
+                throw new IOException(name + " is truncated!");
+            return new MappedTile(width, height, originX, originY, cellWidth, cellHeight, buffer, HEADER_SIZE);
+        case INT16:
+            if ((long) HEADER_SIZE + 2L * width * height != buffer.capacity())
+                throw new IOException(name + " is truncated!");
+            return new QuantizedTile(width, height, originX, originY, cellWidth, cellHeight, buffer, HEADER_SIZE);
+        default:
+            checkBlocks(buffer, width, height, name);
+            return new PackedTile(width, height, originX, originY, cellWidth, cellHeight, buffer, HEADER_SIZE);
+        }
+    }
+
+    private static void checkBlocks(ByteBuffer buffer, int width, int height, String name) throws IOException {
+        long blocks = (long) PackedTile.blocks(width) * PackedTile.blocks(height);
+        long blocksOffset = HEADER_SIZE + PackedTile.ENTRY_SIZE * blocks;
+        long length = buffer.capacity() - blocksOffset - PackedTile.PADDING;
+        if (length < 0)
+            throw new IOException(name + " is truncated!");
+        for (int i = 0; i < blocks; i++) {
+            int entry = HEADER_SIZE + PackedTile.ENTRY_SIZE * i;
+            int bits = buffer.get(entry + 6);
+            if (bits < 0 || bits > 16 || buffer.getInt(entry) < 0
+                    || buffer.getInt(entry) + (PackedTile.BLOCK_CELLS / 8) * bits > length)
+                throw new IOException(name + " is truncated!");
+        }
+    }
+
+    /**
+     * @param tile
+     *            mapped or encoded by this class
+     * @return encoding of the cells of the tile
+     */
+    static TileEncoding encodingOf(ElevationTile tile) {
+        if (tile instanceof QuantizedTile)
+            return TileEncoding.INT16;
+        if (tile instanceof PackedTile)
+            return TileEncoding.PACKED;
+        return TileEncoding.FLOAT32;
+    }
+
+    static boolean isQuantizable(ElevationTile tile) {
+        for (int row = 0; row < tile.getHeight(); row++) {
+            for (int col = 0; col < tile.getWidth(); col++)
+                if (!QuantizedTile.isQuantizable(tile.get(col, row)))
+                    return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer header(ElevationTile tile, TileEncoding encoding) {
+        return ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putShort(VERSION)
+                .putShort(encoding.getType()).putInt(tile.getWidth()).putInt(tile.getHeight())
+                .putDouble(tile.getOriginX()).putDouble(tile.getOriginY()).putDouble(tile.getCellWidth())
+                .putDouble(tile.getCellHeight());
+    }
+
+    /**
+     * @return header and cells of a quantized tile
+     */
+    private static ByteBuffer toBuffer(ElevationTile tile, TileEncoding encoding) {
+        int width = tile.getWidth();
+        int height = tile.getHeight();
+        if (encoding == TileEncoding.INT16) {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 2 * width * height).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(header(tile, encoding).array());
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++)
+                    buffer.putShort(QuantizedTile.quantize(tile.get(col, row)));
+            }
+            return buffer;
+        }
+
+        // First pass finds the bits of every block, second pass packs them
+        int blocksX = PackedTile.blocks(width);
+        int blocksY = PackedTile.blocks(height);
+        short[] cells = new short[PackedTile.BLOCK_CELLS];
+        short[] bases = new short[blocksX * blocksY];
+        byte[] bits = new byte[blocksX * blocksY];
+        boolean[] noData = new boolean[blocksX * blocksY];
+        long length = 0;
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int block = by * blocksX + bx;
+                readBlock(tile, bx, by, cells);
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                for (int i = 0; i < PackedTile.BLOCK_CELLS; i++) {
+                    if (cells[i] == QuantizedTile.NO_DATA) {
+                        noData[block] = true;
+                    } else {
+                        min = Math.min(min, cells[i]);
+                        max = Math.max(max, cells[i]);
+                    }
+                }
+                if (min > max) {
+                    // Nothing but cells without data
+                    bases[block] = QuantizedTile.NO_DATA;
+                    noData[block] = false;
+                    continue;
+                }
+                bases[block] = (short) min;
+                // One more code for cells without data
+                int codes = max - min + (noData[block] ? 2 : 1);
+                bits[block] = (byte) (32 - Integer.numberOfLeadingZeros(codes - 1));
+                length += (PackedTile.BLOCK_CELLS / 8) * bits[block];
+            }
+        }
+
+        int blocksOffset = HEADER_SIZE + PackedTile.ENTRY_SIZE * bases.length;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (blocksOffset + length + PackedTile.PADDING))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(header(tile, encoding).array());
+        buffer.position(blocksOffset);
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int block = by * blocksX + bx;
+                int entry = HEADER_SIZE + PackedTile.ENTRY_SIZE * block;
+                buffer.putInt(entry, buffer.position() - blocksOffset).putShort(entry + 4, bases[block])
+                        .put(entry + 6, bits[block]).put(entry + 7, (byte) (noData[block] ? 1 : 0));
+                if (bits[block] == 0)
+                    continue;
+
+                readBlock(tile, bx, by, cells);
+                int noDataCode = (1 << bits[block]) - 1;
+                long pending = 0;
+                int pendingBits = 0;
+                for (int i = 0; i < PackedTile.BLOCK_CELLS; i++) {
+                    int code = cells[i] == QuantizedTile.NO_DATA ? noDataCode : cells[i] - bases[block];
+                    pending |= (long) code << pendingBits;
+                    pendingBits += bits[block];
+                    while (pendingBits >= 8) {
+                        buffer.put((byte) pending);
+                        pending >>>= 8;
+                        pendingBits -= 8;
+                    }
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Quantizes the cells of a block row by row. Cells beyond the southern or
+     * eastern edge of the tile repeat the edge cells so that they don't widen
+     * the range of the block.
+     */
+    private static void readBlock(ElevationTile tile, int bx, int by, short[] cells) {
+        int col0 = bx << PackedTile.BLOCK_SHIFT;
+        int row0 = by << PackedTile.BLOCK_SHIFT;
+        for (int r = 0; r < PackedTile.BLOCK_SIZE; r++) {
+            int row = Math.min(row0 + r, tile.getHeight() - 1);
+            for (int c = 0; c < PackedTile.BLOCK_SIZE; c++) {
+                int col = Math.min(col0 + c, tile.getWidth() - 1);
+                cells[(r << PackedTile.BLOCK_SHIFT) | c] = QuantizedTile.quantize(tile.get(col, row));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
@@ -0,0 +1,64 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.util.Locale;
+
+import me.jsimomaa.osmosis.utils.DemProduct;
+
+/**
+ * Elevation model products used for sampling the nodes
+ *
+ * @author jsimomaa
+ *
+ */
+public enum Resolution {
+    /**
+     * Every node is sampled from the 2 m elevation model
+     */
+    FINE("2m", DemProduct.HILA_2M),
+    /**
+     * Every node is sampled from the 10 m elevation model
+     */
+    COARSE("10m", DemProduct.HILA_10M),
+    /**
+     * Nodes are sampled from the 10 m elevation model unless they are within
+     * a refined area or match a refined tag, or the 10 m model has no map
+     * sheet for them
+     */
+    HYBRID("hybrid", DemProduct.HILA_10M);
+
+    private final String name;
+    private final DemProduct product;
+
+    Resolution(String name, DemProduct product) {
+        this.name = name;
+        this.product = product;
+    }
+
+    /**
+     * @return product the nodes are sampled from by default
+     */
+    public DemProduct getProduct() {
+        return product;
+    }
+
+    /**
+     * @param name
+     *            of the resolution, case-insensitive
+     * @return the resolution
+     * @throws IllegalArgumentException
+     *             if the resolution is not supported
+     */
+    public static Resolution parse(String name) {
+        String normalized = name.trim().toLowerCase(Locale.ROOT);
+        for (Resolution resolution : values()) {
+            if (resolution.name.equals(normalized))
+                return resolution;
+        }
+        throw new IllegalArgumentException("Unsupported resolution " + name + "! Use one of 2m, 10m or hybrid");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
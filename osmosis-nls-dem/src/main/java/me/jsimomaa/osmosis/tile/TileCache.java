@@ -0,0 +1,217 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Memory bounded LRU cache for decoded map sheets. Every value is weighted with
+ * the given weigher and the least recently used values are evicted once the
+ * total weight exceeds the budget. The most recently inserted value is never
+ * evicted, so a single sheet larger than the budget still fits.
+ * <br>
+ * <br>
+ * Evicted and removed values are handed to the disposer right away. Values
+ * that other threads might still be using must be reference counted, see
+ * {@link ElevationTile#retain()}.
+ * <br>
+ * <br>
+ * Sheets are keyed by their primitive id. The last sheet looked up is
+ * remembered so that consecutive lookups of the same sheet, the common case
+ * with spatially ordered input, don't need to box the key or take the lock.
+ *
+ * @author jsimomaa
+ *
+ * @param <V>
+ *            decoded map sheet
+ */
+public class TileCache<V> {
+
+    private final long maxBytes;
+    private final ToLongFunction<V> weigher;
+    private final Consumer<V> disposer;
+
+    private final LinkedHashMap<Integer, Weighted<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile Memo<V> last;
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TileCache(long maxBytes, ToLongFunction<V> weigher, Consumer<V> disposer) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Tile cache size must be positive! (" + maxBytes + ")");
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+        this.disposer = disposer;
+    }
+
+    /**
+     * Looks up a sheet and records a hit or a miss
+     *
+     * @param key
+     *            of the sheet
+     * @return the sheet or <code>null</code> if it is not resident
+     */
+    public V get(int key) {
+        Memo<V> memo = last;
+        if (memo != null && memo.key == key) {
+            hits.incrementAndGet();
+            return memo.value;
+        }
+        V value = peek(key);
+        if (value != null)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Looks up a sheet without affecting the hit and miss counters. The sheet
+     * is still marked as recently used.
+     *
+     * @param key
+     *            of the sheet
+     * @return the sheet or <code>null</code> if it is not resident
+     */
+    public synchronized V peek(int key) {
+        Weighted<V> entry = entries.get(key);
+        if (entry == null)
+            return null;
+        last = new Memo<>(key, entry.value);
+        return entry.value;
+    }
+
+    /**
+     * Looks up a sheet without affecting the counters or the sheet remembered
+     * for the next lookup. Meant for occasional lookups from other threads
+     * that shouldn't disturb the main access pattern. The sheet is still
+     * marked as recently used.
+     *
+     * @param key
+     *            of the sheet
+     * @return the sheet or <code>null</code> if it is not resident
+     */
+    public synchronized V getIfPresent(int key) {
+        Weighted<V> entry = entries.get(key);
+        return entry != null ? entry.value : null;
+    }
+
+    public synchronized boolean containsKey(int key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized void put(int key, V value) {
+        // Lookups served by the memo don't refresh the recency - do it here so
+        // that the sheet in use is not the first one to go
+        Memo<V> memo = last;
+        if (memo != null) {
+            if (memo.key == key)
+                last = null;
+            else
+                entries.get(memo.key);
+        }
+
+        long weight = weigher.applyAsLong(value);
+        Weighted<V> previous = entries.put(key, new Weighted<>(value, weight));
+        if (previous != null) {
+            bytes -= previous.weight;
+            if (previous.value != value)
+                disposer.accept(previous.value);
+        }
+        bytes += weight;
+
+        // Evict least recently used sheets but always keep the one just added
+        Iterator<Map.Entry<Integer, Weighted<V>>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && entries.size() > 1) {
+            Map.Entry<Integer, Weighted<V>> eldest = it.next();
+            it.remove();
+            forget(eldest.getKey());
+            bytes -= eldest.getValue().weight;
+            disposer.accept(eldest.getValue().value);
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized V remove(int key) {
+        Weighted<V> removed = entries.remove(key);
+        if (removed == null)
+            return null;
+        forget(key);
+        bytes -= removed.weight;
+        disposer.accept(removed.value);
+        return removed.value;
+    }
+
+    public synchronized void clear() {
+        last = null;
+        entries.values().forEach(entry -> disposer.accept(entry.value));
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void forget(int key) {
+        Memo<V> memo = last;
+        if (memo != null && memo.key == key)
+            last = null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("hits=").append(getHits()).append(", misses=").append(getMisses())
+                .append(", evictions=").append(getEvictions()).append(", resident=").append(size())
+                .append(" sheets (").append(getBytes() >> 20).append("/").append(maxBytes >> 20).append(" MB)")
+                .toString();
+    }
+
+    private static class Memo<V> {
+
+        private final int key;
+        private final V value;
+
+        Memo(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static class Weighted<V> {
+
+        private final V value;
+        private final long weight;
+
+        Weighted(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.util.Locale;
+
+/**
+ * Cell encodings of {@link RawTiles raw tiles} and of the decoded map sheets
+ * held in memory
+ *
+ * @author jsimomaa
+ *
+ */
+public enum TileEncoding {
+    /**
+     * 32-bit float per cell, exactly as decoded from the GeoTIFF
+     */
+    FLOAT32((short) 1),
+    /**
+     * 16-bit elevation in decimetres per cell, see {@link QuantizedTile}
+     */
+    INT16((short) 2),
+    /**
+     * Decimetres packed block by block relative to the lowest cell of the
+     * block, see {@link PackedTile}
+     */
+    PACKED((short) 3);
+
+    private final short type;
+
+    TileEncoding(short type) {
+        this.type = type;
+    }
+
+    /**
+     * @return data type stored in the header of a raw tile
+     */
+    short getType() {
+        return type;
+    }
+
+    static TileEncoding ofType(short type) {
+        for (TileEncoding encoding : values()) {
+            if (encoding.type == type)
+                return encoding;
+        }
+        return null;
+    }
+
+    /**
+     * @param name
+     *            of the encoding, case-insensitive
+     * @return the encoding
+     * @throws IllegalArgumentException
+     *             if the encoding is not supported
+     */
+    public static TileEncoding parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Unsupported tile encoding " + name + "! Use one of float32, int16 or packed", e);
+        }
+    }
+}
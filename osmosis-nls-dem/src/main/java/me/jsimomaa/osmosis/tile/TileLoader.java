@@ -0,0 +1,229 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.factory.Hints;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import me.jsimomaa.osmosis.source.ElevationSource;
+
+/**
+ * Loads map sheets from an {@link ElevationSource} into tiles. Downloaded
+ * GeoTIFFs are converted once into {@link RawTiles raw tiles} next to them
+ * and memory-mapped on later loads. Shared by the Osmosis task and the
+ * standalone lookup so that both see the same tiles. Safe to use from several
+ * threads at once.
+ *
+ * @author jsimomaa
+ *
+ */
+public class TileLoader {
+
+    private static final Logger LOGGER = Logger.getLogger(TileLoader.class.getName());
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Notified of the work done for loading the sheets
+     */
+    public interface Listener {
+
+        /**
+         * @param bytes
+         *            size of the downloaded GeoTIFF
+         * @param nanos
+         *            time taken by the download
+         */
+        void downloaded(long bytes, long nanos);
+
+        /**
+         * @param nanos
+         *            time taken by decoding a GeoTIFF
+         */
+        void decoded(long nanos);
+
+        /**
+         * Called when a corrupt sheet is loaded again
+         */
+        void retried();
+    }
+
+    private final CoordinateReferenceSystem crs;
+    private final boolean rawTiles;
+    private final TileEncoding encoding;
+    private final Listener listener;
+
+    /**
+     * @param crs
+     *            EPSG:3067 for decoding the GeoTIFFs
+     * @param rawTiles
+     *            convert the GeoTIFFs into raw tiles and map them
+     * @param encoding
+     *            of the cells of newly converted sheets
+     * @param listener
+     *            of the loads
+     */
+    public TileLoader(CoordinateReferenceSystem crs, boolean rawTiles, TileEncoding encoding, Listener listener) {
+        this.crs = crs;
+        this.rawTiles = rawTiles;
+        this.encoding = encoding;
+        this.listener = listener;
+    }
+
+    /**
+     * @return <code>true</code> if the GeoTIFFs are converted into raw tiles
+     */
+    public boolean isRawTiles() {
+        return rawTiles;
+    }
+
+    /**
+     * Downloads and loads the given map sheet retrying a few times if the
+     * tiff turns out to be corrupt
+     *
+     * @param source
+     *            of the map sheet
+     * @param sheetName
+     *            map sheet
+     * @return the tile or <code>null</code> if the sheet is not available or
+     *         could not be loaded
+     */
+    public ElevationTile loadRetrying(ElevationSource source, String sheetName) {
+        int retries = 0;
+        Throwable last = null;
+        while (retries != MAX_ATTEMPTS) {
+            // Download tiff from nls.fi API endpoint
+            try {
+                ElevationTile tile = load(source, sheetName);
+                if (tile == null)
+                    // tiff file is not available - let nodes be processed
+                    // without z-tag
+                    LOGGER.info("Map sheet " + sheetName + " is not available to download - skipping nodes on that sheet!");
+                return tile;
+            } catch (Throwable t) {
+                // The file is corrupt! Need to re-download it
+                retries++;
+                listener.retried();
+                LOGGER.warning(sheetName + " is corrupt - re-download! (" + retries + "/" + MAX_ATTEMPTS + ")");
+                last = t;
+            }
+        }
+        LOGGER.log(Level.SEVERE, "Could not download " + sheetName + " - last exception was:", last);
+        return null;
+    }
+
+    /**
+     * Loads the given map sheet once
+     *
+     * @param source
+     *            of the map sheet
+     * @param sheetName
+     *            map sheet
+     * @return the tile or <code>null</code> if the sheet is not available
+     * @throws IOException
+     *             if the sheet could not be downloaded or decoded
+     */
+    public ElevationTile load(ElevationSource source, String sheetName) throws IOException {
+        Path location = source.getTiffLocation(sheetName);
+        if (location == null)
+            return null;
+
+        Path raw = RawTiles.rawPathFor(location);
+        boolean tiffExists = Files.exists(location);
+        // A source may hold only the raw tile of a sheet
+        if ((rawTiles || !tiffExists) && Files.exists(raw)) {
+            // Converted on an earlier run - no need to decode the tiff again
+            ElevationTile mapped = null;
+            try {
+                mapped = RawTiles.map(raw);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, raw + " is corrupted! Converting it again", e);
+                try {
+                    Files.deleteIfExists(raw);
+                } catch (IOException e1) {
+                    // Read-only source - converted into memory below
+                }
+            }
+            if (mapped != null) {
+                // The elevations have to match a fresh conversion, cached
+                // results are keyed by the configured encoding
+                TileEncoding stored = RawTiles.encodingOf(mapped);
+                if (stored == encoding || (stored == TileEncoding.FLOAT32 && !RawTiles.isQuantizable(mapped)))
+                    return mapped;
+                if (stored == TileEncoding.FLOAT32 || encoding != TileEncoding.FLOAT32) {
+                    // Decimetres are requantized exactly
+                    LOGGER.info("Converting " + raw + " from " + stored + " to " + encoding);
+                    return store(mapped, raw);
+                }
+                if (!tiffExists) {
+                    LOGGER.warning(raw + " is " + stored + " and cannot be converted to " + encoding
+                            + " without its tiff - using it as is");
+                    return mapped;
+                }
+                LOGGER.info("Converting " + location + " again, " + raw + " is " + stored);
+            }
+        }
+
+        ArrayTile tile = decode(source, sheetName);
+        if (tile == null)
+            return null;
+        return store(tile, raw);
+    }
+
+    /**
+     * @return the tile in the configured encoding, mapped from the raw tile
+     *         written for it if raw tiles are enabled
+     */
+    private ElevationTile store(ElevationTile tile, Path raw) throws IOException {
+        if (!rawTiles)
+            return RawTiles.encode(tile, encoding);
+
+        try {
+            RawTiles.write(tile, raw, encoding);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not store raw tile " + raw + " - keeping the tile in memory", e);
+            return RawTiles.encode(tile, encoding);
+        }
+        return RawTiles.map(raw);
+    }
+
+    private ArrayTile decode(ElevationSource source, String sheetName) throws IOException {
+        Path location = source.getTiffLocation(sheetName);
+        boolean download = location != null && !Files.exists(location);
+        long start = System.nanoTime();
+        Path tiff = source.getTiff(sheetName);
+        if (tiff == null)
+            return null;
+        if (download)
+            listener.downloaded(Files.size(tiff), System.nanoTime() - start);
+        File tiffFile = tiff.toFile();
+
+        // Reading the coverage through a file
+        GeoTiffReader reader = null;
+        GridCoverage2D gc = null;
+        try {
+            long decodeStart = System.nanoTime();
+            reader = new GeoTiffReader(tiffFile, new Hints(Hints.DEFAULT_COORDINATE_REFERENCE_SYSTEM, crs));
+            gc = reader.read(null);
+            ArrayTile tile = ArrayTile.fromCoverage(gc);
+            listener.decoded(System.nanoTime() - decodeStart);
+            return tile;
+        } catch (Throwable t) {
+            // File is possibly corrupt - let the source fetch it again
+            source.discard(sheetName, tiff);
+            throw t;
+        } finally {
+            if (gc != null)
+                gc.dispose(true);
+            if (reader != null)
+                reader.dispose();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.util.function.IntFunction;
+
+import me.jsimomaa.osmosis.utils.TM35Utils;
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+/**
+ * Interpolates elevations from a tile. The cells needed for interpolation are
+ * read straight from the tile into a reusable window, so sampling doesn't
+ * allocate. Near the edges of the sheet the missing cells are read from the
+ * adjacent sheets given by the neighbour lookup. If an adjacent sheet is not
+ * available, the edge cells of the sheet itself are used instead.
+ * <br>
+ * <br>
+ * If any of the cells needed is without data, the sample falls back to the
+ * next simpler interpolation method and finally to the nearest cell.
+ * <br>
+ * <br>
+ * Not thread-safe, use an own sampler for each thread.
+ *
+ * @author jsimomaa
+ *
+ */
+public class TileSampler {
+
+    // Maximum amount of adjacent sheets touched by a single sample (corner)
+    private static final int MAX_NEIGHBOURS = 3;
+
+    private final Interpolation interpolation;
+    private final TM35Scale scale;
+    private final IntFunction<ElevationTile> neighbours;
+
+    private final float[] window = new float[16];
+    private final int[] neighbourIds = new int[MAX_NEIGHBOURS];
+    private final ElevationTile[] neighbourTiles = new ElevationTile[MAX_NEIGHBOURS];
+    private int neighbourCount = 0;
+    private ElevationTile tile;
+
+    /**
+     * @param interpolation
+     *            method
+     * @param scale
+     *            of the map sheets
+     * @param neighbours
+     *            returns the tile of the given sheet id retained for the
+     *            sampler, or <code>null</code> if the sheet is not available.
+     *            The sampler releases the tile once the sample is done.
+     */
+    public TileSampler(Interpolation interpolation, TM35Scale scale, IntFunction<ElevationTile> neighbours) {
+        this.interpolation = interpolation;
+        this.scale = scale;
+        this.neighbours = neighbours;
+    }
+
+    public Interpolation getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * @param tile
+     *            containing the point
+     * @param x
+     *            easting in EPSG:3067
+     * @param y
+     *            northing in EPSG:3067
+     * @return elevation or {@link Float#NaN} if the point is outside of the
+     *         tile or there is no data
+     */
+    public float sample(ElevationTile tile, double x, double y) {
+        float nearest = tile.sample(x, y);
+        if (interpolation == Interpolation.NEAREST || Float.isNaN(nearest))
+            return nearest;
+
+        this.tile = tile;
+        try {
+            // Position relative to the cell centers
+            double fx = (x - tile.originX) / tile.cellWidth - 0.5;
+            double fy = (tile.originY - y) / tile.cellHeight - 0.5;
+            int col = (int) Math.floor(fx);
+            int row = (int) Math.floor(fy);
+            double tx = fx - col;
+            double ty = fy - row;
+
+            if (interpolation == Interpolation.BICUBIC) {
+                float bicubic = bicubic(col, row, tx, ty);
+                if (!Float.isNaN(bicubic))
+                    return bicubic;
+            }
+            float bilinear = bilinear(col, row, tx, ty);
+            return Float.isNaN(bilinear) ? nearest : bilinear;
+        } finally {
+            releaseNeighbours();
+            this.tile = null;
+        }
+    }
+
+    private float bilinear(int col, int row, double tx, double ty) {
+        float z00 = cell(col, row);
+        float z10 = cell(col + 1, row);
+        float z01 = cell(col, row + 1);
+        float z11 = cell(col + 1, row + 1);
+        double top = z00 + (z10 - z00) * tx;
+        double bottom = z01 + (z11 - z01) * tx;
+        // NaN propagates if any of the cells is without data
+        return (float) (top + (bottom - top) * ty);
+    }
+
+    private float bicubic(int col, int row, double tx, double ty) {
+        for (int j = 0; j < 4; j++) {
+            for (int i = 0; i < 4; i++) {
+                float z = cell(col - 1 + i, row - 1 + j);
+                if (Float.isNaN(z))
+                    return Float.NaN;
+                window[4 * j + i] = z;
+            }
+        }
+        double r0 = cubic(window[0], window[1], window[2], window[3], tx);
+        double r1 = cubic(window[4], window[5], window[6], window[7], tx);
+        double r2 = cubic(window[8], window[9], window[10], window[11], tx);
+        double r3 = cubic(window[12], window[13], window[14], window[15], tx);
+        return (float) cubic(r0, r1, r2, r3, ty);
+    }
+
+    /**
+     * Catmull-Rom cubic convolution between p1 and p2
+     */
+    private static double cubic(double p0, double p1, double p2, double p3, double t) {
+        return p1 + 0.5 * t * (p2 - p0 + t * (2 * p0 - 5 * p1 + 4 * p2 - p3 + t * (3 * (p1 - p2) + p3 - p0)));
+    }
+
+    private float cell(int col, int row) {
+        ElevationTile center = tile;
+        if (col >= 0 && row >= 0 && col < center.width && row < center.height)
+            return center.get(col, row);
+
+        // Center of the cell in EPSG:3067
+        double x = center.originX + (col + 0.5) * center.cellWidth;
+        double y = center.originY - (row + 0.5) * center.cellHeight;
+        ElevationTile neighbour = neighbour(TM35Utils.sheetId(x, y, scale));
+        if (neighbour == null)
+            // Clamp to the edge of the sheet
+            return center.get(clamp(col, center.width), clamp(row, center.height));
+
+        int ncol = (int) Math.floor((x - neighbour.originX) / neighbour.cellWidth);
+        int nrow = (int) Math.floor((neighbour.originY - y) / neighbour.cellHeight);
+        return neighbour.get(clamp(ncol, neighbour.width), clamp(nrow, neighbour.height));
+    }
+
+    private ElevationTile neighbour(int sheetId) {
+        if (sheetId == TM35Utils.NO_SHEET)
+            return null;
+        for (int i = 0; i < neighbourCount; i++) {
+            if (neighbourIds[i] == sheetId)
+                return neighbourTiles[i];
+        }
+        ElevationTile neighbour = neighbours.apply(sheetId);
+        if (neighbourCount < MAX_NEIGHBOURS) {
+            neighbourIds[neighbourCount] = sheetId;
+            neighbourTiles[neighbourCount] = neighbour;
+            neighbourCount++;
+        } else if (neighbour != null) {
+            // Can't happen with cells smaller than the sheets, don't leak
+            // the reference anyway
+            neighbour.release();
+            return null;
+        }
+        return neighbour;
+    }
+
+    private void releaseNeighbours() {
+        for (int i = 0; i < neighbourCount; i++) {
+            if (neighbourTiles[i] != null)
+                neighbourTiles[i].release();
+            neighbourTiles[i] = null;
+        }
+        neighbourCount = 0;
+    }
+
+    private static int clamp(int index, int size) {
+        return index < 0 ? 0 : index >= size ? size - 1 : index;
+    }
+}
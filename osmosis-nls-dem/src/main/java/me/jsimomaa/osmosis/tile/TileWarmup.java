@@ -0,0 +1,212 @@
+package me.jsimomaa.osmosis.tile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import me.jsimomaa.osmosis.source.ElevationSource;
+import me.jsimomaa.osmosis.utils.RateLimiter;
+
+/**
+ * Downloads and converts a list of map sheets ahead of the actual runs so
+ * that they start with every sheet in the tile store. Sheets are loaded in
+ * parallel and the downloads are limited to a given rate to stay within the
+ * limits of the NLS service.
+ * <br>
+ * <br>
+ * Completed sheets are appended to an optional journal file, one
+ * <code>&lt;sheet&gt; done|missing</code> line per sheet, and skipped when
+ * the warm-up is run again with the same journal. Sheets that failed are
+ * left out of the journal and retried on the next run.
+ *
+ * @author jsimomaa
+ *
+ */
+public class TileWarmup {
+
+    private static final Logger LOGGER = Logger.getLogger(TileWarmup.class.getName());
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final String DONE = "done";
+    private static final String MISSING = "missing";
+
+    private final ElevationSource source;
+    private final TileLoader loader;
+    private final int concurrency;
+    private final RateLimiter limiter;
+    private final Path journal;
+
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger cached = new AtomicInteger();
+    private final AtomicInteger missing = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private BufferedWriter journalWriter;
+
+    /**
+     * @param source
+     *            of the map sheets
+     * @param loader
+     *            converting the downloaded sheets into raw tiles
+     * @param concurrency
+     *            amount of sheets loaded at once
+     * @param limiter
+     *            of the downloads or <code>null</code> for no limit
+     * @param journal
+     *            file recording the completed sheets or <code>null</code>
+     */
+    public TileWarmup(ElevationSource source, TileLoader loader, int concurrency, RateLimiter limiter,
+            Path journal) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be positive! (" + concurrency + ")");
+        this.source = source;
+        this.loader = loader;
+        this.concurrency = concurrency;
+        this.limiter = limiter;
+        this.journal = journal;
+    }
+
+    /**
+     * Loads the given map sheets into the tile store
+     *
+     * @param sheetNames
+     *            map sheets, e.g. <code>L4132E</code>
+     * @return amount of sheets that could not be loaded
+     * @throws IOException
+     *             if the journal cannot be read or written
+     * @throws InterruptedException
+     *             if interrupted while waiting for the sheets
+     */
+    public int run(List<String> sheetNames) throws IOException, InterruptedException {
+        Set<String> completed = readJournal();
+        List<String> todo = new ArrayList<>();
+        for (String sheetName : sheetNames) {
+            if (!completed.contains(sheetName))
+                todo.add(sheetName);
+        }
+        LOGGER.info("Warming up " + todo.size() + " map sheets with " + concurrency + " threads ("
+                + (sheetNames.size() - todo.size()) + " already completed according to the journal)");
+
+        if (journal != null)
+            journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        ExecutorService service = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<>(todo.size());
+            for (String sheetName : todo)
+                futures.add(service.submit(() -> warm(sheetName)));
+
+            long start = System.nanoTime();
+            long lastProgress = start;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof UncheckedIOException)
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    LOGGER.info("Warm-up: " + (i + 1) + "/" + futures.size() + " map sheets, " + summary() + ", "
+                            + String.format("%.1f", (i + 1) / ((now - start) / 1e9)) + " sheets/s");
+                }
+            }
+        } finally {
+            service.shutdownNow();
+            service.awaitTermination(1, TimeUnit.MINUTES);
+            if (journalWriter != null)
+                journalWriter.close();
+        }
+        LOGGER.info("Warm-up complete: " + summary());
+        return failed.get();
+    }
+
+    private void warm(String sheetName) {
+        try {
+            Path location = source.getTiffLocation(sheetName);
+            if (location == null) {
+                missing.incrementAndGet();
+                record(sheetName, MISSING);
+                return;
+            }
+            if (loader.isRawTiles() ? Files.exists(RawTiles.rawPathFor(location)) : Files.exists(location)) {
+                cached.incrementAndGet();
+                record(sheetName, DONE);
+                return;
+            }
+            if (limiter != null && !Files.exists(location))
+                limiter.acquire();
+
+            if (loader.isRawTiles()) {
+                ElevationTile tile = loader.load(source, sheetName);
+                if (tile == null) {
+                    missing.incrementAndGet();
+                    record(sheetName, MISSING);
+                    return;
+                }
+                tile.release();
+            } else if (source.getTiff(sheetName) == null) {
+                missing.incrementAndGet();
+                record(sheetName, MISSING);
+                return;
+            }
+            downloaded.incrementAndGet();
+            record(sheetName, DONE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (UncheckedIOException e) {
+            throw e;
+        } catch (Throwable t) {
+            // Left out of the journal so that the next run tries again
+            failed.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Could not warm up " + sheetName, t);
+        }
+    }
+
+    private Set<String> readJournal() throws IOException {
+        Set<String> completed = new HashSet<>();
+        if (journal == null || !Files.exists(journal))
+            return completed;
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            String[] fields = line.trim().split("\\s+");
+            // A line cut short by an interrupted run is ignored
+            if (fields.length == 2 && (DONE.equals(fields[1]) || MISSING.equals(fields[1])))
+                completed.add(fields[0]);
+        }
+        return completed;
+    }
+
+    private synchronized void record(String sheetName, String status) {
+        if (journalWriter == null)
+            return;
+        try {
+            journalWriter.write(sheetName + " " + status);
+            journalWriter.newLine();
+            journalWriter.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write to the journal " + journal, e);
+        }
+    }
+
+    private String summary() {
+        return downloaded.get() + " loaded, " + cached.get() + " already stored, " + missing.get()
+                + " not available, " + failed.get() + " failed";
+    }
+}
@@ -0,0 +1,52 @@
+package me.jsimomaa.osmosis.utils;
+
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+/**
+ * Elevation model products of the NLS file service
+ *
+ * @author jsimomaa
+ *
+ */
+public enum DemProduct {
+    /**
+     * Elevation model 2 m in 1:10 000 map sheets
+     */
+    HILA_2M("hila_2m", TM35Scale.SCALE_10000, 2),
+    /**
+     * Elevation model 10 m in 1:50 000 map sheets
+     */
+    HILA_10M("hila_10m", TM35Scale.SCALE_50000, 10);
+
+    private final String feedName;
+    private final TM35Scale scale;
+    private final int cellSize;
+
+    DemProduct(String feedName, TM35Scale scale, int cellSize) {
+        this.feedName = feedName;
+        this.scale = scale;
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * @return name of the product in the feed path, e.g.
+     *         <code>hila_2m</code>
+     */
+    public String getFeedName() {
+        return feedName;
+    }
+
+    /**
+     * @return scale of the map sheets the product is split into
+     */
+    public TM35Scale getScale() {
+        return scale;
+    }
+
+    /**
+     * @return size of a cell in meters
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+}
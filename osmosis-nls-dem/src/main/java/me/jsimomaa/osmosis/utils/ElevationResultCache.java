@@ -0,0 +1,416 @@
+package me.jsimomaa.osmosis.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Persistent map from node id to the location and elevation of the node as
+ * of the previous runs. A node whose location has not changed since can be
+ * passed on with the cached elevation without transforming its coordinates
+ * or sampling a map sheet.
+ * <br>
+ * <br>
+ * The records are kept in an open addressing hash table in a memory-mapped
+ * file:
+ *
+ * <pre>
+ * header, {@link #HEADER_SIZE} bytes:
+ *   int  magic ("NLSC")
+ *   int  version
+ *   long fingerprint of the settings the elevations were sampled with
+ *   long capacity
+ *   long size
+ *   int  generation of the last run
+ *   int  1 while the cache is open
+ * records, {@link #RECORD_BYTES} bytes each:
+ *   long  id
+ *   int   latitude in 1e-7 degrees
+ *   int   longitude in 1e-7 degrees
+ *   int   easting in EPSG:3067 in decimeters
+ *   int   northing in EPSG:3067 in decimeters
+ *   float elevation
+ *   int   generation of the run that last saw the node, 0 for empty slots
+ * </pre>
+ *
+ * Every run marks the nodes it sees with a new generation. Nodes not seen
+ * by a completed run have been deleted from the input and are dropped by
+ * compacting the table once they make up a quarter of it. A cache that was
+ * not closed cleanly or was sampled with other settings is started over.
+ * <br>
+ * <br>
+ * Not thread-safe.
+ *
+ * @author jsimomaa
+ *
+ */
+public class ElevationResultCache implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ElevationResultCache.class.getName());
+
+    private static final int MAGIC = 0x4E4C5343; // NLSC
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    private static final int FINGERPRINT_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int SIZE_OFFSET = 24;
+    private static final int GENERATION_OFFSET = 32;
+    private static final int OPEN_OFFSET = 36;
+
+    static final int RECORD_BYTES = 32;
+    private static final int LAT_OFFSET = 8;
+    private static final int LON_OFFSET = 12;
+    private static final int X_OFFSET = 16;
+    private static final int Y_OFFSET = 20;
+    private static final int Z_OFFSET = 24;
+    private static final int GEN_OFFSET = 28;
+
+    private static final int SEGMENT_SHIFT = 24;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long INITIAL_CAPACITY = 1 << 16;
+    private static final double MAX_LOAD = 0.7;
+
+    /**
+     * Returned by {@link #find(long, double, double)} if the node is not in
+     * the cache or has moved
+     */
+    public static final long NOT_FOUND = -1;
+
+    private final Path file;
+    private final long fingerprint;
+
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long size;
+    private int generation;
+    // Records marked with the current generation
+    private long live = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Opens the cache or creates a new one
+     *
+     * @param file
+     *            location of the cache
+     * @param fingerprint
+     *            of the settings affecting the elevations, a cache with
+     *            another fingerprint is started over
+     * @throws IOException
+     */
+    public ElevationResultCache(Path file, long fingerprint) throws IOException {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        if (!open())
+            create(file, INITIAL_CAPACITY, 0);
+
+        this.generation = header.getInt(GENERATION_OFFSET) + 1;
+        header.putInt(GENERATION_OFFSET, generation);
+        header.putInt(OPEN_OFFSET, 1);
+        header.force();
+    }
+
+    /**
+     * Looks up a node and counts a hit or a miss
+     *
+     * @param id
+     *            of the node
+     * @param lat
+     *            current latitude of the node
+     * @param lon
+     *            current longitude of the node
+     * @return slot of the node for {@link #x(long)}, {@link #y(long)} and
+     *         {@link #z(long)}, or {@link #NOT_FOUND} if the node is not
+     *         cached or has moved
+     */
+    public long find(long id, double lat, double lon) {
+        long slot = probe(id);
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        if (segment.getInt(offset + GEN_OFFSET) == 0 || segment.getInt(offset + LAT_OFFSET) != toFixed(lat)
+                || segment.getInt(offset + LON_OFFSET) != toFixed(lon)) {
+            misses++;
+            return NOT_FOUND;
+        }
+        hits++;
+        mark(segment, offset);
+        return slot;
+    }
+
+    /**
+     * @return easting of the node in the slot in EPSG:3067
+     */
+    public double x(long slot) {
+        return segment(slot).getInt(offset(slot) + X_OFFSET) / 10.0;
+    }
+
+    /**
+     * @return northing of the node in the slot in EPSG:3067
+     */
+    public double y(long slot) {
+        return segment(slot).getInt(offset(slot) + Y_OFFSET) / 10.0;
+    }
+
+    /**
+     * @return cached elevation of the node in the slot
+     */
+    public float z(long slot) {
+        return segment(slot).getFloat(offset(slot) + Z_OFFSET);
+    }
+
+    /**
+     * Adds or replaces a node
+     *
+     * @param id
+     *            of the node
+     * @param lat
+     *            latitude of the node
+     * @param lon
+     *            longitude of the node
+     * @param x
+     *            easting in EPSG:3067
+     * @param y
+     *            northing in EPSG:3067
+     * @param z
+     *            elevation of the node
+     */
+    public void put(long id, double lat, double lon, double x, double y, float z) {
+        if (size + 1 > capacity * MAX_LOAD)
+            rebuild(capacity << 1, false);
+
+        long slot = probe(id);
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        if (segment.getInt(offset + GEN_OFFSET) == 0)
+            size++;
+        mark(segment, offset);
+        segment.putLong(offset, id);
+        segment.putInt(offset + LAT_OFFSET, toFixed(lat));
+        segment.putInt(offset + LON_OFFSET, toFixed(lon));
+        segment.putInt(offset + X_OFFSET, (int) Math.round(x * 10));
+        segment.putInt(offset + Y_OFFSET, (int) Math.round(y * 10));
+        segment.putFloat(offset + Z_OFFSET, z);
+    }
+
+    /**
+     * Drops the nodes not seen by this run if they make up a quarter of the
+     * cache. Only to be called once every node of the input has been looked
+     * up, and only if the input covers every node the cache was filled from.
+     */
+    public void compact() {
+        long stale = size - live;
+        if (stale == 0 || stale < size / 4)
+            return;
+        long newCapacity = INITIAL_CAPACITY;
+        while (live > newCapacity * MAX_LOAD)
+            newCapacity <<= 1;
+        LOGGER.info("Compacting elevation result cache " + file + ": dropping " + stale + " of " + size
+                + " nodes not seen anymore");
+        rebuild(newCapacity, true);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Writes the cache to disk and marks it closed cleanly
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null)
+            return;
+        for (MappedByteBuffer segment : segments)
+            segment.force();
+        header.putLong(SIZE_OFFSET, size);
+        header.putInt(OPEN_OFFSET, 0);
+        header.force();
+        channel.close();
+        channel = null;
+        header = null;
+        segments = null;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("hits=").append(hits).append(", misses=").append(misses)
+                .append(", cached=").append(size).append(" nodes (").append(file).append(")").toString();
+    }
+
+    /**
+     * Maps an existing cache
+     *
+     * @return <code>false</code> if there is no usable cache
+     */
+    private boolean open() throws IOException {
+        if (!Files.exists(file))
+            return false;
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        String reason = null;
+        if (channel.size() < HEADER_SIZE) {
+            reason = "is truncated";
+        } else {
+            header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            long storedCapacity = header.getLong(CAPACITY_OFFSET);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                reason = "is not an elevation result cache of this version";
+            else if (header.getInt(OPEN_OFFSET) != 0)
+                reason = "was not closed cleanly";
+            else if (header.getLong(FINGERPRINT_OFFSET) != fingerprint)
+                reason = "was sampled with other settings";
+            else if (Long.bitCount(storedCapacity) != 1
+                    || channel.size() != HEADER_SIZE + storedCapacity * RECORD_BYTES)
+                reason = "is truncated";
+        }
+        if (reason != null) {
+            LOGGER.info("Elevation result cache " + file + " " + reason + " - starting over");
+            channel.close();
+            channel = null;
+            header = null;
+            return false;
+        }
+        capacity = header.getLong(CAPACITY_OFFSET);
+        size = header.getLong(SIZE_OFFSET);
+        segments = map(channel, capacity);
+        LOGGER.info("Opened elevation result cache " + file + " with " + size + " nodes");
+        return true;
+    }
+
+    /**
+     * Creates an empty cache in the given location and makes it the current
+     * one
+     */
+    private void create(Path location, long newCapacity, int newGeneration) throws IOException {
+        FileChannel newChannel = FileChannel.open(location, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer newHeader = newChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+        newHeader.order(ByteOrder.LITTLE_ENDIAN);
+        newHeader.putInt(0, MAGIC).putInt(4, VERSION).putLong(FINGERPRINT_OFFSET, fingerprint)
+                .putLong(CAPACITY_OFFSET, newCapacity).putLong(SIZE_OFFSET, 0)
+                .putInt(GENERATION_OFFSET, newGeneration).putInt(OPEN_OFFSET, 1);
+        this.channel = newChannel;
+        this.header = newHeader;
+        this.segments = map(newChannel, newCapacity);
+        this.capacity = newCapacity;
+        this.size = 0;
+    }
+
+    /**
+     * Moves the records into a new table of the given capacity. The new
+     * table is written next to the cache and moved into place.
+     *
+     * @param liveOnly
+     *            drop the records not seen by this run
+     */
+    private void rebuild(long newCapacity, boolean liveOnly) {
+        FileChannel oldChannel = channel;
+        MappedByteBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            create(tmp, newCapacity, generation);
+            long moved = 0;
+            for (long slot = 0; slot < oldCapacity; slot++) {
+                ByteBuffer from = oldSegments[(int) (slot >>> SEGMENT_SHIFT)];
+                int fromOffset = (int) (slot & SEGMENT_MASK) * RECORD_BYTES;
+                int gen = from.getInt(fromOffset + GEN_OFFSET);
+                if (gen == 0 || (liveOnly && gen != generation))
+                    continue;
+                long target = probe(from.getLong(fromOffset));
+                ByteBuffer to = segment(target);
+                int toOffset = offset(target);
+                for (int i = 0; i < RECORD_BYTES; i += 8)
+                    to.putLong(toOffset + i, from.getLong(fromOffset + i));
+                moved++;
+            }
+            size = moved;
+            if (liveOnly)
+                live = moved;
+            oldChannel.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not resize elevation result cache " + file, e);
+        }
+    }
+
+    private void mark(ByteBuffer segment, int offset) {
+        if (segment.getInt(offset + GEN_OFFSET) != generation) {
+            segment.putInt(offset + GEN_OFFSET, generation);
+            live++;
+        }
+    }
+
+    /**
+     * @return slot holding the id or the empty slot where it belongs
+     */
+    private long probe(long id) {
+        long mask = capacity - 1;
+        long slot = mix(id) & mask;
+        while (true) {
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            if (segment.getInt(offset + GEN_OFFSET) == 0 || segment.getLong(offset) == id)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, long capacity) throws IOException {
+        int count = (int) ((capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long records = Math.min(SEGMENT_MASK + 1, capacity - ((long) i << SEGMENT_SHIFT));
+            segments[i] = channel.map(MapMode.READ_WRITE, HEADER_SIZE + ((long) i << SEGMENT_SHIFT) * RECORD_BYTES,
+                    records * RECORD_BYTES);
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return segments;
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & SEGMENT_MASK) * RECORD_BYTES;
+    }
+
+    private static int toFixed(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    private static long mix(long id) {
+        // Finalizer of MurmurHash3 - node ids are mostly sequential
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb53a62a5f9ceL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,143 @@
+package me.jsimomaa.osmosis.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local copy of the map sheet to path listing of the NLS Atom feed. Stored in
+ * a compact binary file together with the time it was fetched and the
+ * validators returned by the feed for conditional revalidation.
+ *
+ * @author jsimomaa
+ *
+ */
+public class FeedCatalog {
+
+    private static final int MAGIC = 0x4E4C5346; // NLSF
+    private static final int VERSION = 1;
+
+    private final Map<String, String> paths;
+    private final Instant fetched;
+    private final String etag;
+    private final String lastModified;
+
+    /**
+     * @param paths
+     *            map sheet to path of its tiff
+     * @param fetched
+     *            when the feed was fetched or last revalidated
+     * @param etag
+     *            ETag of the first page of the feed or <code>null</code>
+     * @param lastModified
+     *            Last-Modified of the first page of the feed or
+     *            <code>null</code>
+     */
+    public FeedCatalog(Map<String, String> paths, Instant fetched, String etag, String lastModified) {
+        this.paths = paths;
+        this.fetched = fetched;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public Map<String, String> getPaths() {
+        return paths;
+    }
+
+    public Instant getFetched() {
+        return fetched;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return <code>true</code> if the feed returned validators for
+     *         conditional revalidation
+     */
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    public boolean isOlderThan(Duration age) {
+        return fetched.plus(age).isBefore(Instant.now());
+    }
+
+    /**
+     * @return copy of this catalog marked as fetched right now
+     */
+    public FeedCatalog revalidated() {
+        return new FeedCatalog(paths, Instant.now(), etag, lastModified);
+    }
+
+    /**
+     * @param file
+     *            catalog file
+     * @return the catalog or <code>null</code> if the file does not exist
+     * @throws IOException
+     *             if the file cannot be read or is not a catalog
+     */
+    public static FeedCatalog read(Path file) throws IOException {
+        if (!Files.exists(file))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a feed catalog");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version + " of feed catalog " + file);
+            Instant fetched = Instant.ofEpochMilli(in.readLong());
+            String etag = emptyToNull(in.readUTF());
+            String lastModified = emptyToNull(in.readUTF());
+            int count = in.readInt();
+            Map<String, String> paths = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++)
+                paths.put(in.readUTF(), in.readUTF());
+            return new FeedCatalog(paths, fetched, etag, lastModified);
+        }
+    }
+
+    /**
+     * Writes the catalog atomically so that a concurrent or interrupted run
+     * never sees a partial file
+     *
+     * @param file
+     *            catalog file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fetched.toEpochMilli());
+            out.writeUTF(etag != null ? etag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+            out.writeInt(paths.size());
+            for (Map.Entry<String, String> entry : paths.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
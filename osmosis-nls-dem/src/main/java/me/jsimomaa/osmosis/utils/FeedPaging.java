@@ -0,0 +1,137 @@
+package me.jsimomaa.osmosis.utils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URIBuilder;
+
+/**
+ * Paging scheme of an Atom feed whose next-links differ from the current page
+ * only by an integer parameter growing by a fixed step, e.g.
+ * <code>page=2</code>, <code>page=3</code>. Pages of such a feed can be
+ * addressed directly and fetched concurrently.
+ *
+ * @author jsimomaa
+ *
+ */
+public class FeedPaging {
+
+    private final URI first;
+    private final String parameter;
+    private final long base;
+    private final long step;
+
+    private FeedPaging(URI first, String parameter, long base, long step) {
+        this.first = first;
+        this.parameter = parameter;
+        this.base = base;
+        this.step = step;
+    }
+
+    /**
+     * @param current
+     *            page of the feed
+     * @param next
+     *            link of the current page
+     * @return paging scheme starting from the next page or <code>null</code>
+     *         if the pages cannot be addressed directly
+     */
+    public static FeedPaging detect(URI current, URI next) {
+        if (!sameResource(current, next))
+            return null;
+        List<NameValuePair> currentParams = new URIBuilder(current).getQueryParams();
+        List<NameValuePair> nextParams = new URIBuilder(next).getQueryParams();
+        if (currentParams.size() != nextParams.size())
+            return null;
+
+        String parameter = null;
+        long base = 0;
+        long step = 0;
+        for (int i = 0; i < currentParams.size(); i++) {
+            NameValuePair a = currentParams.get(i);
+            NameValuePair b = nextParams.get(i);
+            if (!a.getName().equals(b.getName()))
+                return null;
+            if (Objects.equals(a.getValue(), b.getValue()))
+                continue;
+            // Only a single parameter may change
+            if (parameter != null)
+                return null;
+            Long from = parseLong(a.getValue());
+            Long to = parseLong(b.getValue());
+            if (from == null || to == null || to <= from)
+                return null;
+            parameter = a.getName();
+            base = to;
+            step = to - from;
+        }
+        return parameter != null ? new FeedPaging(next, parameter, base, step) : null;
+    }
+
+    /**
+     * @param index
+     *            of the page counting from the next page of the detected
+     *            pair
+     * @return link of the page
+     * @throws URISyntaxException
+     */
+    public URI page(int index) throws URISyntaxException {
+        // Keep the parameters in place - setParameter would move the paging
+        // parameter last and the links of the feed would no longer match
+        URIBuilder builder = new URIBuilder(first);
+        List<NameValuePair> params = builder.getQueryParams();
+        builder.clearParameters();
+        for (NameValuePair param : params) {
+            String value = param.getName().equals(parameter) ? Long.toString(base + index * step) : param.getValue();
+            builder.addParameter(param.getName(), value);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param uri
+     *            link returned by the feed
+     * @param index
+     *            of the page the link is expected to point to
+     * @return <code>true</code> if the link follows the paging scheme
+     * @throws URISyntaxException
+     */
+    public boolean isPage(URI uri, int index) throws URISyntaxException {
+        URI expected = page(index);
+        if (!sameResource(expected, uri))
+            return false;
+        List<NameValuePair> expectedParams = new URIBuilder(expected).getQueryParams();
+        List<NameValuePair> params = new URIBuilder(uri).getQueryParams();
+        if (expectedParams.size() != params.size())
+            return false;
+        for (int i = 0; i < params.size(); i++) {
+            if (!expectedParams.get(i).getName().equals(params.get(i).getName())
+                    || !Objects.equals(expectedParams.get(i).getValue(), params.get(i).getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean sameResource(URI a, URI b) {
+        return Objects.equals(a.getScheme(), b.getScheme()) && Objects.equals(a.getHost(), b.getHost())
+                && a.getPort() == b.getPort() && Objects.equals(a.getPath(), b.getPath());
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null)
+            return null;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return parameter + "=" + base + "+" + step + "n";
+    }
+}
@@ -0,0 +1,650 @@
+package me.jsimomaa.osmosis.utils;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+
+import me.jsimomaa.osmosis.source.ElevationSource;
+
+/**
+ * @author jsimomaa
+ *
+ */
+public class NLSXMLClient implements ElevationSource {
+
+    private static final Logger LOGGER = Logger.getLogger(NLSXMLClient.class.getName());
+
+    private static final Header ACCEPT = new BasicHeader("Accept", "application/atom+xml");
+    // private static final Header ACCEPT_ENCODING = new
+    // BasicHeader("Accept-Encoding","gzip, deflate, sdch, br");
+    // private static final Header CONNECTION = new
+    // BasicHeader("Connection","keep-alive");
+    // private static final Header HOST = new
+    // BasicHeader("Host","tiedostopalvelu.maanmittauslaitos.fi");
+
+    public static final Duration DEFAULT_CATALOG_MAX_AGE = Duration.ofDays(7);
+    private static final String CATALOG_FILE = "catalog.bin";
+    private static final String PART_SUFFIX = ".part";
+    // Without validators a catalog this fresh is not refetched for a missing
+    // map sheet - sheets over sea are missing on every run
+    private static final Duration MISS_REFRESH_MIN_AGE = Duration.ofDays(1);
+
+    public static final int DEFAULT_FEED_CONCURRENCY = 4;
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+    private CloseableHttpClient client;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private String apiKey;
+    private final DemProduct product;
+
+    private Path tiffStorage;
+    private Path catalogFile;
+    private Duration catalogMaxAge = DEFAULT_CATALOG_MAX_AGE;
+    private FeedCatalog catalog;
+    private boolean fetchedThisRun = false;
+    private int feedConcurrency = DEFAULT_FEED_CONCURRENCY;
+    private final AtomicLong retries = new AtomicLong();
+
+    public NLSXMLClient(String apiKey) {
+        this(apiKey, System.getProperty("java.io.tmpdir"));
+    }
+
+    public NLSXMLClient(String apiKey, String tiffStorage) {
+        this(apiKey, tiffStorage, DemProduct.HILA_2M);
+    }
+
+    /**
+     * @param apiKey
+     *            NLS API key
+     * @param tiffStorage
+     *            directory for the downloaded tiffs and the feed catalog
+     * @param product
+     *            elevation model to download
+     */
+    public NLSXMLClient(String apiKey, String tiffStorage, DemProduct product) {
+        this.apiKey = apiKey;
+        this.product = product;
+        this.tiffStorage = Paths.get(tiffStorage).resolve(getClass().getSimpleName());
+        // Each product has a feed of its own
+        this.catalogFile = this.tiffStorage.resolve(
+                product == DemProduct.HILA_2M ? CATALOG_FILE : product.getFeedName() + "-" + CATALOG_FILE);
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setDefaultMaxPerRoute(
+                Math.max(DEFAULT_FEED_CONCURRENCY, Runtime.getRuntime().availableProcessors()));
+        this.client = HttpClientBuilder.create().setConnectionManager(connectionManager)
+                .setUserAgent(
+                        "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/54.0.2840.100 Safari/537.36")
+                .setDefaultHeaders(Arrays.asList(ACCEPT)).build();
+    }
+
+    /**
+     * Sets how long the local catalog of the feed is used before it is
+     * revalidated against the feed. Must be called before the first lookup.
+     * 
+     * @param catalogMaxAge
+     *            maximum age of the catalog
+     */
+    public void setCatalogMaxAge(Duration catalogMaxAge) {
+        this.catalogMaxAge = catalogMaxAge;
+    }
+
+    /**
+     * Sets how many pages of the feed are fetched at once when the paging
+     * scheme of the feed allows it. Must be called before the first lookup.
+     * 
+     * @param feedConcurrency
+     *            amount of pages fetched at once
+     */
+    public void setFeedConcurrency(int feedConcurrency) {
+        this.feedConcurrency = feedConcurrency;
+        this.connectionManager.setDefaultMaxPerRoute(
+                Math.max(feedConcurrency, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * @return the catalog of the feed, loaded from the local catalog file or
+     *         fetched from the feed on first use
+     */
+    private synchronized FeedCatalog catalog() {
+        if (catalog != null)
+            return catalog;
+
+        FeedCatalog cached = null;
+        try {
+            cached = FeedCatalog.read(catalogFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read feed catalog " + catalogFile + " - fetching the feed", e);
+        }
+        if (cached != null && !cached.isOlderThan(catalogMaxAge)) {
+            LOGGER.info("Using feed catalog " + catalogFile + " with " + cached.getPaths().size()
+                    + " map sheets fetched at " + cached.getFetched());
+            catalog = cached;
+        } else {
+            catalog = refresh(cached);
+        }
+        return catalog;
+    }
+
+    /**
+     * Refetches the feed once per run when a map sheet is not found in a
+     * catalog loaded from disk
+     * 
+     * @return <code>true</code> if the catalog was refreshed
+     */
+    private synchronized boolean refreshOnMiss() {
+        if (fetchedThisRun)
+            return false;
+        if (!catalog.hasValidators() && !catalog.isOlderThan(MISS_REFRESH_MIN_AGE))
+            return false;
+        catalog = refresh(catalog);
+        return true;
+    }
+
+    private FeedCatalog refresh(FeedCatalog cached) {
+        fetchedThisRun = true;
+        try {
+            FeedCatalog fetched = fetchCatalog(cached);
+            try {
+                fetched.write(catalogFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not write feed catalog " + catalogFile, e);
+            }
+            return fetched;
+        } catch (URISyntaxException | IOException | XMLStreamException e) {
+            LOGGER.log(Level.SEVERE, "Could not fetch NLS feed", e);
+            if (cached != null) {
+                LOGGER.warning("Using stale feed catalog fetched at " + cached.getFetched());
+                return cached;
+            }
+            return new FeedCatalog(Collections.emptyMap(), Instant.now(), null, null);
+        }
+    }
+
+    private FeedCatalog fetchCatalog(FeedCatalog cached)
+            throws URISyntaxException, IOException, XMLStreamException {
+        URI uri = new URIBuilder().setScheme("https").setHost("tiedostopalvelu.maanmittauslaitos.fi")
+                .setPath("/tp/feed/mtp/korkeusmalli/" + product.getFeedName()).addParameter("api_key", apiKey)
+                .addParameter("format", "image/tiff").build();
+
+        // Revalidate the first page - it changes whenever the feed changes
+        HttpUriRequest first = new HttpGet(uri);
+        if (cached != null && cached.getEtag() != null)
+            first.addHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+        if (cached != null && cached.getLastModified() != null)
+            first.addHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+
+        Map<String, String> paths = new HashMap<>();
+        String etag;
+        String lastModified;
+        LOGGER.info("Fetching URI " + uri);
+        try (CloseableHttpResponse response = client.execute(first)) {
+            if (cached != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                LOGGER.info("NLS feed has not changed since " + cached.getFetched());
+                return cached.revalidated();
+            }
+            etag = headerValue(response, HttpHeaders.ETAG);
+            lastModified = headerValue(response, HttpHeaders.LAST_MODIFIED);
+            URI next = parseTifTitlesAndLinks(response, paths);
+            fetchPages(uri, next, paths);
+        }
+        if (paths.isEmpty())
+            throw new IOException("NLS feed did not list any map sheets");
+        LOGGER.info("Fetched " + paths.size() + " map sheets from NLS feed " + product.getFeedName());
+        return new FeedCatalog(paths, Instant.now(), etag, lastModified);
+    }
+
+    /**
+     * Fetches the rest of the feed. Pages are fetched concurrently as soon as
+     * the next-links turn out to be directly addressable, otherwise one after
+     * another.
+     */
+    private void fetchPages(URI previous, URI uri, Map<String, String> paths)
+            throws URISyntaxException, IOException, XMLStreamException {
+        boolean concurrent = feedConcurrency > 1;
+        while (uri != null) {
+            FeedPaging paging = concurrent ? FeedPaging.detect(previous, uri) : null;
+            if (paging != null) {
+                LOGGER.info("Fetching NLS feed " + feedConcurrency + " pages at a time (" + paging + ")");
+                // Fall back to one page at a time if the scheme breaks
+                concurrent = false;
+                previous = null;
+                uri = fetchPagesConcurrently(paging, paths);
+                continue;
+            }
+            previous = uri;
+            uri = fetchTifTitlesAndLinksRetrying(client, uri, paths);
+        }
+    }
+
+    /**
+     * @return link to continue from one page at a time or <code>null</code>
+     *         if the whole feed has been fetched
+     */
+    private URI fetchPagesConcurrently(FeedPaging paging, Map<String, String> paths)
+            throws URISyntaxException, IOException, XMLStreamException {
+        ExecutorService executor = Executors.newFixedThreadPool(feedConcurrency);
+        try {
+            // Pages past the end of the feed may be requested as well but they
+            // are never used
+            Deque<Future<FeedPage>> window = new ArrayDeque<>();
+            int submitted = 0;
+            for (; submitted < feedConcurrency; submitted++)
+                window.add(submitPage(executor, paging.page(submitted)));
+
+            for (int index = 0;; index++) {
+                FeedPage page = window.poll().get();
+                paths.putAll(page.paths);
+                if (page.next == null)
+                    return null;
+                if (!paging.isPage(page.next, index + 1)) {
+                    LOGGER.info("NLS feed paging changed at " + page.next + " - continuing one page at a time");
+                    return page.next;
+                }
+                window.add(submitPage(executor, paging.page(submitted++)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching NLS feed", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof XMLStreamException)
+                throw (XMLStreamException) cause;
+            throw new IOException("Could not fetch NLS feed", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<FeedPage> submitPage(ExecutorService executor, URI uri) {
+        return executor.submit(() -> {
+            Map<String, String> paths = new HashMap<>();
+            URI next = fetchTifTitlesAndLinksRetrying(client, uri, paths);
+            return new FeedPage(paths, next);
+        });
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private String lookup(String key) {
+        String path = catalog().getPaths().get(key);
+        if (path == null && refreshOnMiss())
+            path = catalog().getPaths().get(key);
+        return path;
+    }
+
+    /**
+     * Resolves where the tiff of the given map sheet is stored without
+     * downloading it
+     * 
+     * @param key
+     *            map sheet
+     * @return location of the tiff or <code>null</code> if the map sheet is
+     *         not available
+     */
+    @Override
+    public Path getTiffLocation(String key) {
+        String path = lookup(key);
+        if (path == null)
+            return null;
+        return tiffStorage.resolve(path.startsWith("/") ? path.substring(1, path.length()) : path);
+    }
+
+    @Override
+    public Path getTiff(String key) throws IOException {
+        try {
+            String path = lookup(key);
+            if (path == null)
+                return null;
+
+            Path tiff = getTiffLocation(key);
+            if (!Files.exists(tiff)) {
+                URI downloadURI = new URIBuilder().setScheme("https").setHost("tiedostopalvelu.maanmittauslaitos.fi")
+                        .setPath("/tp/tilauslataus" + path).addParameter("api_key", apiKey).build();
+                try {
+                    downloadTiff(client, downloadURI, tiff);
+                } catch (Exception e) {
+                    // Retry once - resumes from where the transfer broke
+                    LOGGER.log(Level.WARNING, "Download of " + key + " failed - retrying", e);
+                    retries.incrementAndGet();
+                    downloadTiff(client, downloadURI, tiff);
+                }
+            }
+            return tiff;
+        } catch (URISyntaxException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("No map sheet available for " + key, e);
+        }
+    }
+
+    @Override
+    public void discard(String key, Path tiff) throws IOException {
+        // Downloaded again on the next request
+        Files.deleteIfExists(tiff);
+    }
+
+    /**
+     * Downloads the tiff into a <code>.part</code>-file next to the target
+     * and moves it into place atomically once its length, TIFF header and
+     * Content-MD5 (when sent) have been verified. A <code>.part</code>-file
+     * left behind by an interrupted transfer is resumed with a Range request.
+     */
+    private static void downloadTiff(CloseableHttpClient client, URI downloadURI, Path targetLocation)
+            throws ClientProtocolException, IOException {
+        Files.createDirectories(targetLocation.getParent());
+        Path part = targetLocation.resolveSibling(targetLocation.getFileName() + PART_SUFFIX);
+        long offset = Files.exists(part) ? Files.size(part) : 0;
+
+        HttpUriRequest get = new HttpGet(downloadURI);
+        if (offset > 0)
+            get.addHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+
+        try (CloseableHttpResponse response = client.execute(get)) {
+            StatusLine status = response.getStatusLine();
+            long expectedLength;
+            boolean append;
+            if (status.getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+                long[] range = parseContentRange(headerValue(response, HttpHeaders.CONTENT_RANGE));
+                if (range == null || range[0] != offset)
+                    throw new IOException("Unexpected Content-Range " + headerValue(response, HttpHeaders.CONTENT_RANGE)
+                            + " when resuming " + part + " from " + offset);
+                expectedLength = range[2];
+                append = true;
+                LOGGER.info("Resuming download of " + targetLocation + " from " + offset + " bytes");
+            } else if (status.getStatusCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+                long[] range = parseContentRange(headerValue(response, HttpHeaders.CONTENT_RANGE));
+                if (range == null || range[2] != offset) {
+                    // The file has changed on the server - start over
+                    Files.delete(part);
+                    throw new IOException("Could not resume " + part + " - downloading it again");
+                }
+                // Transfer was interrupted right before the rename
+                verifyAndMove(part, targetLocation, offset);
+                return;
+            } else if (status.getStatusCode() == HttpStatus.SC_OK) {
+                expectedLength = response.getEntity().getContentLength();
+                append = false;
+            } else {
+                LOGGER.warning(status.toString());
+                HttpEntity entity = response.getEntity();
+                InputStream stream = entity.getContent();
+                StringWriter writer = new StringWriter();
+                IOUtils.copy(stream, writer);
+
+                String content = writer.toString();
+                LOGGER.warning(content);
+                throw new IOException("Could not download " + downloadURI.getPath() + ": " + status);
+            }
+
+            // Content-MD5 covers the whole file only if it is sent in one go
+            MessageDigest md5 = append ? null : newMD5();
+            try (InputStream input = md5 != null
+                    ? new DigestInputStream(response.getEntity().getContent(), md5)
+                    : response.getEntity().getContent();
+                    OutputStream output = Files.newOutputStream(part, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE,
+                            append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+                // An interrupted copy leaves the .part-file to be resumed
+                IOUtils.copy(input, output);
+            }
+
+            String contentMD5 = md5 != null ? headerValue(response, HttpHeaders.CONTENT_MD5) : null;
+            if (contentMD5 != null
+                    && !MessageDigest.isEqual(Base64.getDecoder().decode(contentMD5.trim()), md5.digest())) {
+                Files.delete(part);
+                throw new IOException("Content-MD5 of " + downloadURI.getPath() + " does not match!");
+            }
+            verifyAndMove(part, targetLocation, expectedLength);
+        }
+    }
+
+    private static void verifyAndMove(Path part, Path targetLocation, long expectedLength) throws IOException {
+        long length = Files.size(part);
+        if (expectedLength >= 0 && length != expectedLength)
+            // Keep the .part-file to be resumed
+            throw new IOException(part + " is " + length + " bytes, expected " + expectedLength);
+
+        if (!hasTiffHeader(part)) {
+            Files.delete(part);
+            throw new IOException(part + " is not a TIFF file!");
+        }
+        Files.move(part, targetLocation, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean hasTiffHeader(Path file) throws IOException {
+        byte[] header = new byte[4];
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            in.readFully(header);
+        } catch (EOFException e) {
+            return false;
+        }
+        // Little- or big-endian, classic TIFF (42) or BigTIFF (43)
+        boolean little = header[0] == 'I' && header[1] == 'I' && header[3] == 0
+                && (header[2] == 42 || header[2] == 43);
+        boolean big = header[0] == 'M' && header[1] == 'M' && header[2] == 0
+                && (header[3] == 42 || header[3] == 43);
+        return little || big;
+    }
+
+    /**
+     * @param contentRange
+     *            e.g. <code>bytes 100-199/200</code> or
+     *            <code>bytes *&#47;200</code>
+     * @return first byte, last byte and total length, -1 where unknown, or
+     *         <code>null</code> if the header cannot be parsed
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes "))
+            return null;
+        String value = contentRange.substring("bytes ".length()).trim();
+        int slash = value.indexOf('/');
+        if (slash < 0)
+            return null;
+        try {
+            String range = value.substring(0, slash);
+            String total = value.substring(slash + 1);
+            long[] result = new long[] { -1, -1, "*".equals(total) ? -1 : Long.parseLong(total) };
+            if (!"*".equals(range)) {
+                int dash = range.indexOf('-');
+                if (dash < 0)
+                    return null;
+                result[0] = Long.parseLong(range.substring(0, dash));
+                result[1] = Long.parseLong(range.substring(dash + 1));
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest newMD5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private URI fetchTifTitlesAndLinksRetrying(CloseableHttpClient client, URI uri,
+            Map<String, String> titlesAndLinks) throws IOException, XMLStreamException, URISyntaxException {
+        try {
+            return fetchTifTitlesAndLinks(client, uri, titlesAndLinks);
+        } catch (Exception e) {
+            // Lets retry once
+            retries.incrementAndGet();
+            return fetchTifTitlesAndLinks(client, uri, titlesAndLinks);
+        }
+    }
+
+    private static URI fetchTifTitlesAndLinks(CloseableHttpClient client, URI uri, Map<String, String> titlesAndLinks)
+            throws IOException, XMLStreamException, URISyntaxException {
+        LOGGER.info("Fetching URI " + uri);
+        try (CloseableHttpResponse response = client.execute(new HttpGet(uri))) {
+            return parseTifTitlesAndLinks(response, titlesAndLinks);
+        }
+    }
+
+    /**
+     * Parses the map sheets of a feed page straight from the response stream
+     * 
+     * @return link to the next page or <code>null</code> if this is the last
+     *         page
+     * @throws IOException
+     *             if the page could not be fetched
+     */
+    private static URI parseTifTitlesAndLinks(HttpResponse response, Map<String, String> titlesAndLinks)
+            throws IOException, XMLStreamException, URISyntaxException {
+        StatusLine line = response.getStatusLine();
+        if (line.getStatusCode() != 200) {
+            LOGGER.warning(line.toString());
+
+            HttpEntity entity = response.getEntity();
+
+            InputStream stream = entity.getContent();
+
+            StringWriter writer = new StringWriter();
+            IOUtils.copy(stream, writer);
+
+            String content = writer.toString();
+            LOGGER.warning(content);
+            // Ending the crawl here would leave the catalog without the rest
+            // of the feed
+            throw new IOException("Could not fetch NLS feed page: " + line);
+        }
+
+        String nextUrl = null;
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(response.getEntity().getContent());
+        try {
+            boolean inEntry = false;
+            String title = null;
+            String path = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                    case "entry":
+                        inEntry = true;
+                        title = null;
+                        path = null;
+                        break;
+                    case "title":
+                        if (inEntry) {
+                            title = reader.getElementText();
+                            title = title.substring(0, title.length() - ".tif".length());
+                        }
+                        break;
+                    case "id":
+                        if (inEntry) {
+                            String urnPath = reader.getElementText();
+                            path = urnPath.substring("urn:path:".length(), urnPath.length());
+                        }
+                        break;
+                    case "link":
+                        if (!inEntry && "next".equals(reader.getAttributeValue(null, "rel")))
+                            nextUrl = reader.getAttributeValue(null, "href");
+                        break;
+                    default:
+                        break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "entry".equals(reader.getLocalName())) {
+                    inEntry = false;
+                    if (title != null && path != null)
+                        titlesAndLinks.put(title, path);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (nextUrl != null)
+            return new URIBuilder(nextUrl).build();
+        else
+            return null;
+    }
+
+    private static class FeedPage {
+
+        private final Map<String, String> paths;
+        private final URI next;
+
+        FeedPage(Map<String, String> paths, URI next) {
+            this.paths = paths;
+            this.next = next;
+        }
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
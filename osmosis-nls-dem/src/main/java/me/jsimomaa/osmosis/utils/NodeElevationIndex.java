@@ -0,0 +1,337 @@
+package me.jsimomaa.osmosis.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Off-heap map from node id to the EPSG:3067 location and elevation of the
+ * node. The records are kept in an open addressing hash table outside of the
+ * Java heap so that planet-scale extracts don't need boxed keys or values.
+ * The table lives in direct memory as long as it fits into the given budget
+ * and is moved into a memory-mapped file once it grows beyond it. The budget
+ * covers the old and the new table while the table is being grown, and the
+ * old table is freed right after, so the index stays within the direct
+ * memory limit of the JVM.
+ * <br>
+ * <br>
+ * Coordinates are stored in decimeters. Not thread-safe.
+ *
+ * @author jsimomaa
+ *
+ */
+public class NodeElevationIndex implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(NodeElevationIndex.class.getName());
+
+    // id (long), x (int), y (int), z (float)
+    private static final int RECORD_BYTES = 20;
+    private static final int X_OFFSET = 8;
+    private static final int Y_OFFSET = 12;
+    private static final int Z_OFFSET = 16;
+
+    private static final int SEGMENT_SHIFT = 24;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long INITIAL_CAPACITY = 1 << 16;
+    private static final double MAX_LOAD = 0.6;
+
+    /**
+     * Returned by {@link #find(long)} if the node is not in the index
+     */
+    public static final long NOT_FOUND = -1;
+
+    // Direct memory is limited to the maximum heap size by default - leave
+    // most of it to the rest of the JVM
+    private static final long MAX_DIRECT_SHARE = 4;
+
+    // Frees direct and mapped buffers without waiting for a GC:
+    // Unsafe.invokeCleaner on Java 9+, DirectBuffer.cleaner() on Java 8
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path directory;
+    private final long maxMemoryBytes;
+
+    // Empty slots have id 0 so node 0 is kept in the extra slot past capacity
+    private ByteBuffer[] segments;
+    private FileChannel channel;
+    private Path file;
+    private long capacity;
+    private long size = 0;
+    private boolean hasZero = false;
+
+    /**
+     * @param directory
+     *            for the memory-mapped file if the index grows beyond the
+     *            memory budget
+     * @param maxMemoryBytes
+     *            memory budget for the index, capped to a quarter of the
+     *            maximum heap size
+     */
+    public NodeElevationIndex(Path directory, long maxMemoryBytes) {
+        this.directory = directory;
+        long maxDirect = Runtime.getRuntime().maxMemory() / MAX_DIRECT_SHARE;
+        if (maxMemoryBytes > maxDirect)
+            LOGGER.info("Node elevation index is limited to " + (maxDirect >> 20) + " MB of direct memory");
+        this.maxMemoryBytes = Math.min(maxMemoryBytes, maxDirect);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds or replaces a node
+     *
+     * @param id
+     *            of the node
+     * @param x
+     *            easting in EPSG:3067
+     * @param y
+     *            northing in EPSG:3067
+     * @param z
+     *            elevation of the node
+     */
+    public void put(long id, double x, double y, float z) {
+        if (size + 1 > capacity * MAX_LOAD)
+            resize(capacity << 1);
+
+        long slot;
+        if (id == 0) {
+            slot = capacity;
+            if (!hasZero)
+                size++;
+            hasZero = true;
+        } else {
+            slot = probe(id);
+            if (id(slot) == 0)
+                size++;
+        }
+        write(slot, id, (int) Math.round(x * 10), (int) Math.round(y * 10), z);
+    }
+
+    /**
+     * @param id
+     *            of the node
+     * @return slot of the node for {@link #x(long)}, {@link #y(long)} and
+     *         {@link #z(long)} or {@link #NOT_FOUND}
+     */
+    public long find(long id) {
+        if (id == 0)
+            return hasZero ? capacity : NOT_FOUND;
+        long slot = probe(id);
+        return id(slot) == id ? slot : NOT_FOUND;
+    }
+
+    /**
+     * @return easting of the node in the slot in EPSG:3067
+     */
+    public double x(long slot) {
+        return segment(slot).getInt(offset(slot) + X_OFFSET) / 10.0;
+    }
+
+    /**
+     * @return northing of the node in the slot in EPSG:3067
+     */
+    public double y(long slot) {
+        return segment(slot).getInt(offset(slot) + Y_OFFSET) / 10.0;
+    }
+
+    /**
+     * @return elevation of the node in the slot
+     */
+    public float z(long slot) {
+        return segment(slot).getFloat(offset(slot) + Z_OFFSET);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return <code>true</code> if the index has been moved into a
+     *         memory-mapped file
+     */
+    public boolean isMapped() {
+        return channel != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        free(segments);
+        segments = null;
+        size = 0;
+        hasZero = false;
+        releaseFile(channel, file);
+        channel = null;
+        file = null;
+    }
+
+    /**
+     * @return slot holding the id or the empty slot where it belongs
+     */
+    private long probe(long id) {
+        long mask = capacity - 1;
+        long slot = mix(id) & mask;
+        long current;
+        while ((current = id(slot)) != 0 && current != id)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void resize(long newCapacity) {
+        ByteBuffer[] oldSegments = segments;
+        FileChannel oldChannel = channel;
+        Path oldFile = file;
+        long oldCapacity = capacity;
+
+        allocate(newCapacity);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer segment = oldSegments[(int) (slot >>> SEGMENT_SHIFT)];
+            int offset = (int) (slot & SEGMENT_MASK) * RECORD_BYTES;
+            long id = segment.getLong(offset);
+            if (id != 0)
+                write(probe(id), id, segment.getInt(offset + X_OFFSET), segment.getInt(offset + Y_OFFSET),
+                        segment.getFloat(offset + Z_OFFSET));
+        }
+        if (hasZero) {
+            ByteBuffer segment = oldSegments[(int) (oldCapacity >>> SEGMENT_SHIFT)];
+            int offset = (int) (oldCapacity & SEGMENT_MASK) * RECORD_BYTES;
+            write(capacity, 0, segment.getInt(offset + X_OFFSET), segment.getInt(offset + Y_OFFSET),
+                    segment.getFloat(offset + Z_OFFSET));
+        }
+        free(oldSegments);
+        releaseFile(oldChannel, oldFile);
+    }
+
+    private void allocate(long newCapacity) {
+        // One extra record for node 0
+        long records = newCapacity + 1;
+        long bytes = records * RECORD_BYTES;
+        // The current table is still allocated while the new one is filled
+        long current = segments != null && channel == null ? (capacity + 1) * RECORD_BYTES : 0;
+        int count = (int) ((records + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        ByteBuffer[] newSegments = new ByteBuffer[count];
+        try {
+            FileChannel newChannel = null;
+            Path newFile = null;
+            if (channel != null || bytes + current > maxMemoryBytes) {
+                Files.createDirectories(directory);
+                newFile = Files.createTempFile(directory, "nls-dem-index", ".bin");
+                newChannel = FileChannel.open(newFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (channel == null)
+                    LOGGER.info("Node elevation index exceeds " + (maxMemoryBytes >> 20) + " MB - moving it to "
+                            + newFile);
+            }
+            for (int i = 0; i < count; i++) {
+                long segmentBytes = Math.min(SEGMENT_MASK + 1, records - ((long) i << SEGMENT_SHIFT)) * RECORD_BYTES;
+                ByteBuffer segment = newChannel != null
+                        ? newChannel.map(MapMode.READ_WRITE, (long) i * (SEGMENT_MASK + 1) * RECORD_BYTES,
+                                segmentBytes)
+                        : ByteBuffer.allocateDirect((int) segmentBytes);
+                newSegments[i] = segment.order(ByteOrder.nativeOrder());
+            }
+            this.channel = newChannel;
+            this.file = newFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not allocate node elevation index under " + directory, e);
+        }
+        this.segments = newSegments;
+        this.capacity = newCapacity;
+    }
+
+    /**
+     * Frees the memory of the segments right away instead of leaving it to
+     * the GC. The segments must not be used afterwards.
+     */
+    private static void free(ByteBuffer[] segments) {
+        if (segments == null)
+            return;
+        for (ByteBuffer segment : segments) {
+            if (segment == null || !segment.isDirect())
+                continue;
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, segment);
+                } else {
+                    Method cleanerMethod = segment.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(segment);
+                    if (cleaner != null)
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Freed by the GC eventually
+                LOGGER.log(Level.FINE, "Could not free node elevation index segment", e);
+                return;
+            }
+        }
+    }
+
+    private static void releaseFile(FileChannel channel, Path file) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete node elevation index " + file, e);
+        }
+    }
+
+    private void write(long slot, long id, int x, int y, float z) {
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.putLong(offset, id);
+        segment.putInt(offset + X_OFFSET, x);
+        segment.putInt(offset + Y_OFFSET, y);
+        segment.putFloat(offset + Z_OFFSET, z);
+    }
+
+    private long id(long slot) {
+        return segment(slot).getLong(offset(slot));
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & SEGMENT_MASK) * RECORD_BYTES;
+    }
+
+    private static long mix(long id) {
+        // Finalizer of MurmurHash3 - node ids are mostly sequential
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb53a62a5f9ceL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
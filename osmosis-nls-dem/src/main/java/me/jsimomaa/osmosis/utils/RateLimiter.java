@@ -0,0 +1,51 @@
+package me.jsimomaa.osmosis.utils;
+
+/**
+ * Token bucket limiting the rate of requests to a remote service. Tokens are
+ * added at the given rate up to a burst of one second worth of requests.
+ * Safe to use from several threads at once.
+ *
+ * @author jsimomaa
+ *
+ */
+public class RateLimiter {
+
+    private final double permitsPerNano;
+    private final double maxPermits;
+
+    private double permits;
+    private long refilled;
+
+    /**
+     * @param permitsPerSecond
+     *            sustained rate of requests
+     */
+    public RateLimiter(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0))
+            throw new IllegalArgumentException("Rate must be positive! (" + permitsPerSecond + ")");
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.maxPermits = Math.max(1, permitsPerSecond);
+        this.permits = maxPermits;
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a request is permitted
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            permits = Math.min(maxPermits, permits + (now - refilled) * permitsPerNano);
+            refilled = now;
+            if (permits >= 1) {
+                permits--;
+                return;
+            }
+            long waitNanos = (long) Math.ceil((1 - permits) / permitsPerNano);
+            wait(Math.max(1, waitNanos / 1000000));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package me.jsimomaa.osmosis.utils;
+
+import java.util.function.Consumer;
+
+/**
+ * Restores the input order of items completed out of order. Every item is
+ * identified by its sequence number, starting from zero, and is released
+ * only after all of the items before it have been released.
+ * <br>
+ * <br>
+ * Not thread-safe.
+ *
+ * @author jsimomaa
+ *
+ * @param <T>
+ *            type of the items
+ */
+public class ReorderBuffer<T> {
+
+    private Object[] ring = new Object[1024];
+    private long next = 0;
+    private int size = 0;
+
+    /**
+     * @param seq
+     *            sequence number of the item
+     * @param item
+     *            completed item
+     */
+    public void put(long seq, T item) {
+        if (seq < next)
+            throw new IllegalArgumentException("Item " + seq + " has already been released!");
+        while (seq - next >= ring.length)
+            grow();
+        int index = (int) (seq & (ring.length - 1));
+        if (ring[index] != null)
+            throw new IllegalArgumentException("Item " + seq + " has already been added!");
+        ring[index] = item;
+        size++;
+    }
+
+    /**
+     * Releases the completed items that are next in sequence
+     *
+     * @param consumer
+     *            of the released items
+     */
+    @SuppressWarnings("unchecked")
+    public void drain(Consumer<? super T> consumer) {
+        int mask = ring.length - 1;
+        Object item;
+        while ((item = ring[(int) (next & mask)]) != null) {
+            ring[(int) (next & mask)] = null;
+            next++;
+            size--;
+            consumer.accept((T) item);
+        }
+    }
+
+    /**
+     * @return amount of completed items waiting for an earlier item
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return sequence number of the next item to be released
+     */
+    public long getNext() {
+        return next;
+    }
+
+    private void grow() {
+        Object[] grown = new Object[ring.length * 2];
+        int mask = ring.length - 1;
+        int grownMask = grown.length - 1;
+        for (long seq = next; seq < next + ring.length; seq++)
+            grown[(int) (seq & grownMask)] = ring[(int) (seq & mask)];
+        ring = grown;
+    }
+}
@@ -0,0 +1,225 @@
+package me.jsimomaa.osmosis.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.store.DataInputStoreReader;
+import org.openstreetmap.osmosis.core.store.DataOutputStoreWriter;
+import org.openstreetmap.osmosis.core.store.DynamicStoreClassRegister;
+import org.openstreetmap.osmosis.core.store.StoreClassRegister;
+import org.openstreetmap.osmosis.core.store.StoreReader;
+import org.openstreetmap.osmosis.core.store.StoreWriter;
+
+/**
+ * Disk-backed store for nodes grouped by TM35 map sheet id. Nodes are buffered in
+ * memory per sheet and appended to a spill file of the sheet once the total
+ * buffer size exceeds the given budget. Each spilled node keeps its
+ * transformed EPSG:3067 coordinates so that it doesn't need to be transformed
+ * again.
+ * <br>
+ * <br>
+ * Not thread-safe.
+ *
+ * @author jsimomaa
+ *
+ */
+public class SheetSpill implements Closeable {
+
+    private static final String SUFFIX = ".spill";
+
+    private final Path directory;
+    private final long maxBufferBytes;
+    private final StoreClassRegister storeClassRegister = new DynamicStoreClassRegister();
+    private final Map<Integer, Bucket> buckets = new HashMap<>();
+    private Bucket last;
+    private long buffered = 0;
+    private long size = 0;
+
+    /**
+     * @param parent
+     *            directory under which a temporary spill directory is created
+     * @param maxBufferBytes
+     *            memory budget for buffered nodes of all sheets
+     * @throws IOException
+     *             if the spill directory cannot be created
+     */
+    public SheetSpill(Path parent, long maxBufferBytes) throws IOException {
+        Files.createDirectories(parent);
+        this.directory = Files.createTempDirectory(parent, "nls-dem-spill");
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    public void add(int sheet, double x, double y, Node node) {
+        Bucket bucket = last;
+        if (bucket == null || bucket.sheet != sheet) {
+            bucket = buckets.computeIfAbsent(sheet, Bucket::new);
+            last = bucket;
+        }
+        int before = bucket.bytes.size();
+        try {
+            bucket.out.writeDouble(x);
+            bucket.out.writeDouble(y);
+        } catch (IOException e) {
+            // Never thrown by ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        node.store(bucket.writer, storeClassRegister);
+        bucket.count++;
+        size++;
+
+        buffered += bucket.bytes.size() - before;
+        if (buffered > maxBufferBytes)
+            flush();
+    }
+
+    /**
+     * @return sheets having spilled nodes, in sorted order
+     */
+    public int[] sheets() {
+        int[] sheets = buckets.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(sheets);
+        return sheets;
+    }
+
+    /**
+     * @param sheet
+     *            map sheet
+     * @return amount of nodes spilled for the sheet
+     */
+    public long count(int sheet) {
+        Bucket bucket = buckets.get(sheet);
+        return bucket != null ? bucket.count : 0;
+    }
+
+    /**
+     * @return amount of spilled nodes in all sheets
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads the nodes of a sheet in the order they were added and removes them
+     * from the spill
+     *
+     * @param sheet
+     *            map sheet
+     * @param consumer
+     *            of the spilled nodes
+     * @throws IOException
+     */
+    public void drain(int sheet, SpilledNodeConsumer consumer) throws IOException {
+        Bucket bucket = buckets.remove(sheet);
+        if (bucket == null)
+            return;
+        if (bucket == last)
+            last = null;
+        flush(bucket);
+
+        Path file = bucket.file();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            StoreReader reader = new DataInputStoreReader(in);
+            for (long i = 0; i < bucket.count; i++) {
+                double x = in.readDouble();
+                double y = in.readDouble();
+                consumer.accept(x, y, new Node(reader, storeClassRegister));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            size -= bucket.count;
+        }
+    }
+
+    /**
+     * Writes every buffered node into the spill files
+     */
+    public void flush() {
+        try {
+            for (Bucket bucket : buckets.values())
+                flush(bucket);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write spill files into " + directory, e);
+        }
+    }
+
+    private void flush(Bucket bucket) throws IOException {
+        if (bucket.bytes.size() == 0)
+            return;
+        try (OutputStream out = Files.newOutputStream(bucket.file(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            bucket.bytes.writeTo(out);
+        }
+        buffered -= bucket.bytes.size();
+        bucket.reset();
+    }
+
+    /**
+     * Deletes all spill files
+     */
+    @Override
+    public void close() throws IOException {
+        buckets.clear();
+        last = null;
+        buffered = 0;
+        size = 0;
+        if (!Files.exists(directory))
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files)
+                Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @FunctionalInterface
+    public interface SpilledNodeConsumer {
+
+        void accept(double x, double y, Node node) throws IOException;
+    }
+
+    private final class Bucket {
+
+        private static final int INITIAL_SIZE = 4096;
+
+        private final int sheet;
+        private ByteArrayOutputStream bytes;
+        private DataOutputStream out;
+        private StoreWriter writer;
+        private long count = 0;
+
+        Bucket(int sheet) {
+            this.sheet = sheet;
+            reset();
+        }
+
+        void reset() {
+            // Don't keep a grown buffer around for sheets that are rarely hit
+            if (bytes != null && bytes.size() <= INITIAL_SIZE) {
+                bytes.reset();
+                return;
+            }
+            bytes = new ByteArrayOutputStream(INITIAL_SIZE);
+            out = new DataOutputStream(bytes);
+            writer = new DataOutputStoreWriter(out);
+        }
+
+        Path file() {
+            return directory.resolve(Integer.toHexString(sheet) + SUFFIX);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package me.jsimomaa.osmosis.utils;
+
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+/**
+ * Sort keys ordering points by TM35 map sheet and along a Hilbert curve
+ * within each sheet. Sorting a window of points by their keys groups the
+ * points of each sheet together, and points close to each other within a
+ * sheet end up next to each other.
+ * <br>
+ * <br>
+ * A key packs the sheet, the position on the curve and the index of the
+ * point within the window, so the points can be sorted as a plain
+ * <code>long[]</code>.
+ *
+ * @author jsimomaa
+ *
+ */
+public final class SpatialOrder {
+
+    private static final int INDEX_BITS = 21;
+    // The curve covers each sheet with 64 x 64 cells
+    private static final int CURVE_ORDER = 6;
+    private static final int CURVE_SIZE = 1 << CURVE_ORDER;
+    private static final int CURVE_BITS = 2 * CURVE_ORDER;
+
+    /**
+     * Maximum amount of points sorted at once
+     */
+    public static final int MAX_WINDOW = 1 << INDEX_BITS;
+
+    private SpatialOrder() {
+    }
+
+    /**
+     * @param sheet
+     *            id of the map sheet of the point or
+     *            {@link TM35Utils#NO_SHEET}
+     * @param x
+     *            easting in EPSG:3067
+     * @param y
+     *            northing in EPSG:3067
+     * @param index
+     *            of the point within the window, below {@link #MAX_WINDOW}
+     * @return sort key of the point
+     */
+    public static long key(int sheet, double x, double y, int index) {
+        int d = 0;
+        if (sheet != TM35Utils.NO_SHEET) {
+            TM35Scale scale = TM35Utils.scaleOf(sheet);
+            d = hilbert(cell(x - TM35Utils.minE(sheet), scale.getSheetWidth()),
+                    cell(y - TM35Utils.minN(sheet), scale.getSheetHeight()));
+        }
+        // Sheet ids fit in 31 bits. Keys of the finer scales come out negative
+        // but the points of each sheet still sort next to each other.
+        return ((long) (sheet + 1) << (CURVE_BITS + INDEX_BITS)) | ((long) d << INDEX_BITS) | index;
+    }
+
+    /**
+     * @param key
+     *            sort key
+     * @return index of the point within the window
+     */
+    public static int index(long key) {
+        return (int) (key & (MAX_WINDOW - 1));
+    }
+
+    private static int cell(double offset, int sheetSize) {
+        int cell = (int) (offset * CURVE_SIZE / sheetSize);
+        return Math.max(0, Math.min(CURVE_SIZE - 1, cell));
+    }
+
+    /**
+     * @return distance of the cell along the Hilbert curve
+     */
+    private static int hilbert(int x, int y) {
+        int d = 0;
+        for (int s = CURVE_SIZE / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so that the curve continues from the
+            // previous one
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = CURVE_SIZE - 1 - x;
+                    y = CURVE_SIZE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
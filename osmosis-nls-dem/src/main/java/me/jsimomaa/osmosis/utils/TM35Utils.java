@@ -0,0 +1,320 @@
+package me.jsimomaa.osmosis.utils;
+
+import org.geotools.geometry.DirectPosition2D;
+import org.opengis.geometry.MismatchedDimensionException;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import fi.nls.aluejako.karttalehtijako.utm_karttalehti;
+
+/**
+ * Utility class for TM35 coordinates
+ *
+ * @author jsimomaa
+ *
+ */
+public class TM35Utils {
+
+    public enum TM35Scale { // pitää olla jokin näistä: 100000,50000,25000,20000,10000,5000
+        SCALE_100000(100000, 96000, 48000),
+        SCALE_50000(50000, 48000, 24000),
+        SCALE_25000(25000, 24000, 12000),
+        SCALE_20000(20000, 12000, 12000),
+        SCALE_10000(10000, 6000, 6000),
+        SCALE_5000(5000, 3000, 3000);
+
+        private int scale;
+        private int sheetWidth;
+        private int sheetHeight;
+
+        TM35Scale(int scale, int sheetWidth, int sheetHeight) {
+            this.scale = scale;
+            this.sheetWidth = sheetWidth;
+            this.sheetHeight = sheetHeight;
+        }
+
+        public int getIntVal() {
+            return scale;
+        }
+
+        /**
+         * @return width (easting) of a single sheet in meters
+         */
+        public int getSheetWidth() {
+            return sheetWidth;
+        }
+
+        /**
+         * @return height (northing) of a single sheet in meters
+         */
+        public int getSheetHeight() {
+            return sheetHeight;
+        }
+    }
+
+    /**
+     * Returned by {@link #sheetId(double, double, TM35Scale)} for points
+     * outside of the TM35 grid
+     */
+    public static final int NO_SHEET = -1;
+
+    // South-west corner of the 1:200 000 grid (row K, column 2)
+    private static final int ORIGIN_E = -76000;
+    private static final int ORIGIN_N = 6570000;
+    private static final int SHEET_200K_WIDTH = 192000;
+    private static final int SHEET_200K_HEIGHT = 96000;
+    private static final String ROWS_200K = "KLMNPQRSTUVWX";
+    private static final int COLS_200K = 5;
+    // Extent of the elevation data in WGS84 as left, bottom, right, top
+    private static final double[] DATA_EXTENT = new double[] { 18, 58, 33, 71 };
+    private static final int BBOX_EDGE_SAMPLES = 16;
+
+    private static final int ROW_BITS = 14;
+    private static final int COL_MASK = (1 << ROW_BITS) - 1;
+    // values() clones the array on every call
+    private static final TM35Scale[] SCALES = TM35Scale.values();
+
+    /**
+     * Method for reverse geocoding coordinates into TM35 map sheets. Example
+     * usage: <br>
+     * <br>
+     * <code>TM35Utils.reverseGeocode(368000, 6678000, TM35Scale.SCALE_5000);</code>
+     * <br>
+     * <br>
+     * Should return <code>L4132E1</code>
+     *
+     * @param lon
+     *            coordinate
+     * @param lat
+     *            coordinate
+     * @param scale
+     *            of the sheet
+     * @return String identifying the map sheet (e.g. L4132E1)
+     * @throws IllegalSearchCriteriaException
+     */
+    public static String reverseGeocode(double lon, double lat, TM35Scale scale) {
+        double[] pt = new double[] { lon, lat }; // E, N (EPSG:3067)
+
+        utm_karttalehti lehti = new utm_karttalehti();
+        lehti = lehti.pisteessa(pt, scale.getIntVal());
+        return lehti.lehtinumero();
+    }
+
+    /**
+     * Allocation-free alternative for
+     * {@link #reverseGeocode(double, double, TM35Scale)}. The sheet is
+     * identified by a packed primitive id holding the scale and the row and
+     * column of the sheet in the grid of that scale. Use
+     * {@link #sheetName(int)} to get the name of the sheet.
+     *
+     * @param e
+     *            easting in EPSG:3067
+     * @param n
+     *            northing in EPSG:3067
+     * @param scale
+     *            of the sheet
+     * @return id of the sheet or {@link #NO_SHEET} if the point is outside of
+     *         the TM35 grid
+     */
+    public static int sheetId(double e, double n, TM35Scale scale) {
+        double de = e - ORIGIN_E;
+        double dn = n - ORIGIN_N;
+        if (de < 0 || dn < 0 || de >= COLS_200K * SHEET_200K_WIDTH || dn >= ROWS_200K.length() * SHEET_200K_HEIGHT)
+            return NO_SHEET;
+        int col = (int) (de / scale.sheetWidth);
+        int row = (int) (dn / scale.sheetHeight);
+        return sheetIdAt(row, col, scale);
+    }
+
+    /**
+     * @param row
+     *            of the sheet counting from the south edge of the grid
+     * @param col
+     *            of the sheet counting from the west edge of the grid
+     * @param scale
+     *            of the sheet
+     * @return id of the sheet or {@link #NO_SHEET} if the sheet is outside of
+     *         the TM35 grid
+     */
+    public static int sheetIdAt(int row, int col, TM35Scale scale) {
+        if (row < 0 || col < 0 || row >= ROWS_200K.length() * (SHEET_200K_HEIGHT / scale.sheetHeight)
+                || col >= COLS_200K * (SHEET_200K_WIDTH / scale.sheetWidth))
+            return NO_SHEET;
+        return (scale.ordinal() << (2 * ROW_BITS)) | (row << ROW_BITS) | col;
+    }
+
+    /**
+     * Lists the sheets intersecting the given extent, row by row starting
+     * from the south-west corner
+     *
+     * @param minE
+     *            west edge in EPSG:3067
+     * @param minN
+     *            south edge in EPSG:3067
+     * @param maxE
+     *            east edge in EPSG:3067
+     * @param maxN
+     *            north edge in EPSG:3067
+     * @param scale
+     *            of the sheets
+     * @return ids of the sheets, empty if the extent is outside of the TM35
+     *         grid
+     */
+    public static int[] sheetsIntersecting(double minE, double minN, double maxE, double maxN, TM35Scale scale) {
+        int cols = COLS_200K * (SHEET_200K_WIDTH / scale.sheetWidth);
+        int rows = ROWS_200K.length() * (SHEET_200K_HEIGHT / scale.sheetHeight);
+        int minCol = (int) Math.max(0, Math.floor((minE - ORIGIN_E) / scale.sheetWidth));
+        int maxCol = (int) Math.min(cols - 1, Math.floor((maxE - ORIGIN_E) / scale.sheetWidth));
+        int minRow = (int) Math.max(0, Math.floor((minN - ORIGIN_N) / scale.sheetHeight));
+        int maxRow = (int) Math.min(rows - 1, Math.floor((maxN - ORIGIN_N) / scale.sheetHeight));
+        if (minCol > maxCol || minRow > maxRow)
+            return new int[0];
+
+        int[] sheets = new int[(maxCol - minCol + 1) * (maxRow - minRow + 1)];
+        int i = 0;
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++)
+                sheets[i++] = sheetIdAt(row, col, scale);
+        }
+        return sheets;
+    }
+
+    /**
+     * Lists the sheets intersecting the given WGS84 bounding box clipped to
+     * the extent of the elevation data
+     *
+     * @param transform
+     *            from WGS84 to EPSG:3067
+     * @param left
+     *            west edge in WGS84
+     * @param bottom
+     *            south edge in WGS84
+     * @param right
+     *            east edge in WGS84
+     * @param top
+     *            north edge in WGS84
+     * @param scale
+     *            of the sheets
+     * @return ids of the sheets, empty if the box is outside of the elevation
+     *         data
+     */
+    public static int[] sheetsIntersecting(MathTransform transform, double left, double bottom, double right,
+            double top, TM35Scale scale) {
+        // Elevation data covers Finland only - don't let a planet-wide bound
+        // span the whole grid
+        left = Math.max(left, DATA_EXTENT[0]);
+        bottom = Math.max(bottom, DATA_EXTENT[1]);
+        right = Math.min(right, DATA_EXTENT[2]);
+        top = Math.min(top, DATA_EXTENT[3]);
+        if (left >= right || bottom >= top)
+            return new int[0];
+
+        // The edges of the box are curved in EPSG:3067 - sample along them
+        double minE = Double.POSITIVE_INFINITY;
+        double minN = Double.POSITIVE_INFINITY;
+        double maxE = Double.NEGATIVE_INFINITY;
+        double maxN = Double.NEGATIVE_INFINITY;
+        DirectPosition2D ptDst = new DirectPosition2D();
+        for (int i = 0; i <= BBOX_EDGE_SAMPLES; i++) {
+            double lon = left + (right - left) * i / BBOX_EDGE_SAMPLES;
+            double lat = bottom + (top - bottom) * i / BBOX_EDGE_SAMPLES;
+            double[][] points = new double[][] { { lon, bottom }, { lon, top }, { left, lat }, { right, lat } };
+            for (double[] point : points) {
+                try {
+                    transform.transform(new DirectPosition2D(point[0], point[1]), ptDst);
+                } catch (MismatchedDimensionException | TransformException e) {
+                    continue;
+                }
+                minE = Math.min(minE, ptDst.x);
+                minN = Math.min(minN, ptDst.y);
+                maxE = Math.max(maxE, ptDst.x);
+                maxN = Math.max(maxN, ptDst.y);
+            }
+        }
+        if (minE > maxE)
+            return new int[0];
+        return sheetsIntersecting(minE, minN, maxE, maxN, scale);
+    }
+
+    public static TM35Scale scaleOf(int sheetId) {
+        return SCALES[sheetId >>> (2 * ROW_BITS)];
+    }
+
+    public static int rowOf(int sheetId) {
+        return (sheetId >>> ROW_BITS) & COL_MASK;
+    }
+
+    public static int colOf(int sheetId) {
+        return sheetId & COL_MASK;
+    }
+
+    /**
+     * @param sheetId
+     *            id of the sheet
+     * @return easting of the west edge of the sheet
+     */
+    public static double minE(int sheetId) {
+        return ORIGIN_E + (double) colOf(sheetId) * scaleOf(sheetId).sheetWidth;
+    }
+
+    /**
+     * @param sheetId
+     *            id of the sheet
+     * @return northing of the south edge of the sheet
+     */
+    public static double minN(int sheetId) {
+        return ORIGIN_N + (double) rowOf(sheetId) * scaleOf(sheetId).sheetHeight;
+    }
+
+    /**
+     * Builds the name of the sheet arithmetically, e.g. <code>L4132E</code>
+     *
+     * @param sheetId
+     *            id of the sheet
+     * @return name of the sheet
+     */
+    public static String sheetName(int sheetId) {
+        TM35Scale scale = scaleOf(sheetId);
+        // Work with the center of the sheet to stay clear of the edges
+        int de = colOf(sheetId) * scale.sheetWidth + scale.sheetWidth / 2;
+        int dn = rowOf(sheetId) * scale.sheetHeight + scale.sheetHeight / 2;
+
+        StringBuilder name = new StringBuilder(7);
+        name.append(ROWS_200K.charAt(dn / SHEET_200K_HEIGHT)).append((char) ('2' + de / SHEET_200K_WIDTH));
+        de %= SHEET_200K_WIDTH;
+        dn %= SHEET_200K_HEIGHT;
+
+        // 1:100 000, 1:50 000 and 1:25 000 each split the parent into four
+        for (TM35Scale quarter : new TM35Scale[] { TM35Scale.SCALE_100000, TM35Scale.SCALE_50000,
+                TM35Scale.SCALE_25000 }) {
+            name.append(quadrant(de, dn, quarter.sheetWidth, quarter.sheetHeight));
+            de %= quarter.sheetWidth;
+            dn %= quarter.sheetHeight;
+            if (scale == quarter)
+                return name.toString();
+        }
+
+        if (scale == TM35Scale.SCALE_20000)
+            // 1:25 000 split into left and right halves
+            return name.append(de < TM35Scale.SCALE_20000.sheetWidth ? 'L' : 'R').toString();
+
+        // 1:25 000 split into eight 1:10 000 sheets A-H
+        int col = de / TM35Scale.SCALE_10000.sheetWidth;
+        int row = dn / TM35Scale.SCALE_10000.sheetHeight;
+        name.append((char) ('A' + 2 * col + row));
+        if (scale == TM35Scale.SCALE_10000)
+            return name.toString();
+
+        de %= TM35Scale.SCALE_10000.sheetWidth;
+        dn %= TM35Scale.SCALE_10000.sheetHeight;
+        return name.append(quadrant(de, dn, TM35Scale.SCALE_5000.sheetWidth, TM35Scale.SCALE_5000.sheetHeight))
+                .toString();
+    }
+
+    private static char quadrant(int de, int dn, int width, int height) {
+        // Numbered column by column starting from the south-west corner
+        int col = de >= width ? 1 : 0;
+        int row = dn >= height ? 1 : 0;
+        return (char) ('1' + 2 * col + row);
+    }
+}
@@ -0,0 +1,86 @@
+package me.jsimomaa.osmosis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+public class HeightFormatTest {
+
+    private static final float[] SPECIAL = { 0f, 0.1f, -0.1f, 12.3f, 99.95f, -99.5f, 1999.9f, 2000.1f,
+            1e-5f, 123456.78f, 3.4e38f };
+
+    @Test
+    public void shortestMatchesFloatToString() {
+        HeightFormat format = new HeightFormat("z", HeightFormat.SHORTEST);
+        for (float height : SPECIAL)
+            assertEquals(Float.toString(height), format.tag(height).getValue());
+        assertEquals("0.0", format.tag(-0f).getValue());
+        assertEquals("0.0", format.format(-0f));
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float height = -100 + 2200 * random.nextFloat();
+            assertEquals(Float.toString(height), format.format(height));
+            assertEquals(Float.toString(height), format.tag(height).getValue());
+        }
+    }
+
+    @Test
+    public void fixedDecimalsMatchStringFormat() {
+        Random random = new Random(2);
+        for (int decimals = 0; decimals <= HeightFormat.MAX_DECIMALS; decimals++) {
+            HeightFormat format = new HeightFormat("z", decimals);
+            double scale = Math.pow(10, decimals);
+            for (int i = 0; i < 20000; i++) {
+                float height = -200 + 2400 * random.nextFloat();
+                double scaled = height * scale;
+                // Ties round differently for negative heights
+                if (Math.abs(scaled - Math.floor(scaled) - 0.5) < 1e-6)
+                    continue;
+                String expected = String.format(Locale.ROOT, "%." + decimals + "f", (double) height);
+                // Heights rounding to zero are written without a sign
+                if (expected.matches("-0\\.?0*"))
+                    expected = expected.substring(1);
+                assertEquals(expected, format.format(height));
+                assertEquals(expected, format.tag(height).getValue());
+            }
+        }
+    }
+
+    @Test
+    public void fixedDecimalsSmallValues() {
+        HeightFormat format = new HeightFormat("z", 2);
+        assertEquals("0.00", format.format(0f));
+        assertEquals("0.05", format.format(0.05f));
+        assertEquals("-0.50", format.format(-0.5f));
+        assertEquals("-3", new HeightFormat("z", 0).format(-3.2f));
+        assertEquals("1.000000", new HeightFormat("z", 6).format(1f));
+    }
+
+    @Test
+    public void hugeHeightsFallBackToShortest() {
+        assertEquals(Float.toString(3.4e38f), new HeightFormat("z", 3).format(3.4e38f));
+    }
+
+    @Test
+    public void tagsAreShared() {
+        for (int decimals = HeightFormat.SHORTEST; decimals <= HeightFormat.MAX_DECIMALS; decimals++) {
+            HeightFormat format = new HeightFormat("ele", decimals);
+            // Whole decimetres and heights of any float value
+            for (float height : new float[] { 12.3f, 123.456789f, -42.42f }) {
+                Tag tag = format.tag(height);
+                assertEquals("ele", tag.getKey());
+                assertSame(tag, format.tag(height));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyDecimals() {
+        new HeightFormat("z", HeightFormat.MAX_DECIMALS + 1);
+    }
+}
@@ -0,0 +1,71 @@
+package me.jsimomaa.osmosis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.container.v0_6.ChangeContainer;
+import org.openstreetmap.osmosis.core.task.v0_6.ChangeSink;
+
+public class NLSDEMChangeTaskTest {
+
+    private Path directory;
+    private Path cacheFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("nlsdemchange");
+        cacheFile = directory.resolve("results.bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void changeRunKeepsResultCache() throws Exception {
+        NLSDEMTask task = NLSDEMTaskTest.createTask(cacheFile);
+        // Ignored by the change task
+        task.setResultCacheCompact(true);
+        NLSDEMTaskTest.fillResultCache(cacheFile, task.fingerprint());
+
+        NLSDEMChangeTask changeTask = new NLSDEMChangeTask(task);
+        changeTask.setChangeSink(new ChangeSink() {
+
+            @Override
+            public void initialize(Map<String, Object> metaData) {
+            }
+
+            @Override
+            public void process(ChangeContainer change) {
+            }
+
+            @Override
+            public void complete() {
+            }
+
+            @Override
+            public void release() {
+            }
+        });
+        // A diff without any of the cached nodes
+        changeTask.initialize(Collections.emptyMap());
+        changeTask.complete();
+        changeTask.release();
+
+        assertEquals(NLSDEMTaskTest.CACHED_NODES, NLSDEMTaskTest.cachedNodes(cacheFile, task.fingerprint()));
+    }
+}
@@ -0,0 +1,105 @@
+package me.jsimomaa.osmosis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+
+import me.jsimomaa.osmosis.source.LocalDirectorySource;
+import me.jsimomaa.osmosis.utils.ElevationResultCache;
+
+public class NLSDEMTaskTest {
+
+    static final int CACHED_NODES = 1000;
+
+    private Path directory;
+    private Path cacheFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("nlsdemtask");
+        cacheFile = directory.resolve("results.bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void resultCacheKeptAfterSmallRun() throws Exception {
+        NLSDEMTask task = createTask(cacheFile);
+        fillResultCache(cacheFile, task.fingerprint());
+        run(task);
+        assertEquals(CACHED_NODES, cachedNodes(cacheFile, task.fingerprint()));
+    }
+
+    @Test
+    public void resultCacheCompactedOnRequest() throws Exception {
+        NLSDEMTask task = createTask(cacheFile);
+        task.setResultCacheCompact(true);
+        fillResultCache(cacheFile, task.fingerprint());
+        run(task);
+        // None of the cached nodes were in the input
+        assertEquals(0, cachedNodes(cacheFile, task.fingerprint()));
+    }
+
+    static NLSDEMTask createTask(Path cacheFile) throws IOException, URISyntaxException {
+        NLSDEMTask task = new NLSDEMTask(new LocalDirectorySource(cacheFile.getParent()),
+                NLSDEMTaskTest.class.getResource("/EPSG3067.prj").toURI());
+        task.setResultCache(cacheFile.toString());
+        return task;
+    }
+
+    static void fillResultCache(Path cacheFile, long fingerprint) throws IOException {
+        try (ElevationResultCache cache = new ElevationResultCache(cacheFile, fingerprint)) {
+            for (int id = 0; id < CACHED_NODES; id++)
+                cache.put(id, 60 + id * 1e-5, 25, 385000, 6671000, id);
+        }
+    }
+
+    static long cachedNodes(Path cacheFile, long fingerprint) throws IOException {
+        try (ElevationResultCache cache = new ElevationResultCache(cacheFile, fingerprint)) {
+            return cache.size();
+        }
+    }
+
+    private static void run(NLSDEMTask task) {
+        task.setSink(new Sink() {
+
+            @Override
+            public void initialize(Map<String, Object> metaData) {
+            }
+
+            @Override
+            public void process(EntityContainer entityContainer) {
+            }
+
+            @Override
+            public void complete() {
+            }
+
+            @Override
+            public void release() {
+            }
+        });
+        task.initialize(Collections.emptyMap());
+        task.complete();
+        task.release();
+    }
+}
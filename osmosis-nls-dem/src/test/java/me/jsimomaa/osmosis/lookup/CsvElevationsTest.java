@@ -0,0 +1,35 @@
+package me.jsimomaa.osmosis.lookup;
+
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+import me.jsimomaa.osmosis.HeightFormat;
+
+public class CsvElevationsTest {
+
+    private final CsvElevations csv = new CsvElevations(null, ',', new HeightFormat("z", HeightFormat.SHORTEST), 16);
+
+    @Test
+    public void findsColumns() {
+        assertNotNull(csv.header("id,lat,lon"));
+        assertNotNull(csv.header("Longitude, Latitude ,name"));
+        assertNotNull(csv.header("\"lng\",\"lat\""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsProjectedColumns() {
+        // TM35FIN easting and northing, not WGS84
+        csv.header("id,x,y");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingLatitude() {
+        csv.header("id,lon,name");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyStream() {
+        csv.header(null);
+    }
+}
@@ -0,0 +1,138 @@
+package me.jsimomaa.osmosis.tile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RawTilesTest {
+
+    // Not a multiple of the block size of PackedTile
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 21;
+    private static final float MAX_ERROR = 0.05f + 1e-4f;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("rawtiles");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void quantizedWithinErrorBound() {
+        ArrayTile tile = terrain(1);
+        ElevationTile encoded = RawTiles.encode(tile, TileEncoding.INT16);
+        assertTrue(encoded instanceof QuantizedTile);
+        assertWithinBound(tile, encoded);
+    }
+
+    @Test
+    public void packedWithinErrorBound() {
+        ArrayTile tile = terrain(2);
+        ElevationTile encoded = RawTiles.encode(tile, TileEncoding.PACKED);
+        assertTrue(encoded instanceof PackedTile);
+        assertWithinBound(tile, encoded);
+    }
+
+    @Test
+    public void packedFlatAndEmptyBlocks() {
+        float[] data = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++)
+            // Flat block, block without data and a block with a single cell
+            // without data
+            data[i] = i % WIDTH < 16 ? 12.3f : i % WIDTH < 32 ? Float.NaN : 4.5f;
+        data[WIDTH - 1] = Float.NaN;
+        ArrayTile tile = new ArrayTile(WIDTH, HEIGHT, 300000, 6700000, 2, 2, data);
+        assertWithinBound(tile, RawTiles.encode(tile, TileEncoding.PACKED));
+    }
+
+    @Test
+    public void requantizingIsExact() {
+        ElevationTile quantized = RawTiles.encode(terrain(3), TileEncoding.INT16);
+        ElevationTile packed = RawTiles.encode(quantized, TileEncoding.PACKED);
+        ElevationTile again = RawTiles.encode(packed, TileEncoding.INT16);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                assertEquals(quantized.get(col, row), packed.get(col, row), 0f);
+                assertEquals(quantized.get(col, row), again.get(col, row), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void unquantizableKeptAsFloats() throws IOException {
+        float[] data = terrainData(4);
+        data[5] = 5000f;
+        ArrayTile tile = new ArrayTile(WIDTH, HEIGHT, 300000, 6700000, 2, 2, data);
+        assertSame(tile, RawTiles.encode(tile, TileEncoding.INT16));
+
+        Path raw = directory.resolve("L4132E" + RawTiles.SUFFIX);
+        RawTiles.write(tile, raw, TileEncoding.PACKED);
+        ElevationTile mapped = RawTiles.map(raw);
+        assertEquals(TileEncoding.FLOAT32, RawTiles.encodingOf(mapped));
+        assertEquals(5000f, mapped.get(5, 0), 0f);
+    }
+
+    @Test
+    public void mappedKeepsEncoding() throws IOException {
+        ArrayTile tile = terrain(5);
+        for (TileEncoding encoding : TileEncoding.values()) {
+            Path raw = directory.resolve(encoding + RawTiles.SUFFIX);
+            RawTiles.write(tile, raw, encoding);
+            ElevationTile mapped = RawTiles.map(raw);
+            assertEquals(encoding, RawTiles.encodingOf(mapped));
+            assertEquals(tile.getOriginX(), mapped.getOriginX(), 0);
+            assertEquals(tile.getCellHeight(), mapped.getCellHeight(), 0);
+            assertWithinBound(tile, mapped);
+        }
+    }
+
+    /**
+     * @return tile with rough terrain and some cells without data
+     */
+    private static ArrayTile terrain(long seed) {
+        return new ArrayTile(WIDTH, HEIGHT, 300000, 6700000, 2, 2, terrainData(seed));
+    }
+
+    private static float[] terrainData(long seed) {
+        Random random = new Random(seed);
+        float[] data = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++)
+            data[i] = random.nextInt(50) == 0 ? Float.NaN : -20 + 1500 * random.nextFloat();
+        return data;
+    }
+
+    private static void assertWithinBound(ElevationTile expected, ElevationTile actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int row = 0; row < expected.getHeight(); row++) {
+            for (int col = 0; col < expected.getWidth(); col++) {
+                float e = expected.get(col, row);
+                float a = actual.get(col, row);
+                if (Float.isNaN(e))
+                    assertTrue(col + "," + row, Float.isNaN(a));
+                else
+                    assertEquals(col + "," + row, e, a, MAX_ERROR);
+            }
+        }
+    }
+}
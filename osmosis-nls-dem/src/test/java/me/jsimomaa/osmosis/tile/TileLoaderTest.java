@@ -0,0 +1,91 @@
+package me.jsimomaa.osmosis.tile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import me.jsimomaa.osmosis.source.LocalDirectorySource;
+
+public class TileLoaderTest {
+
+    private static final String SHEET = "L4132E";
+    private static final TileLoader.Listener LISTENER = new TileLoader.Listener() {
+
+        @Override
+        public void downloaded(long bytes, long nanos) {
+        }
+
+        @Override
+        public void decoded(long nanos) {
+        }
+
+        @Override
+        public void retried() {
+        }
+    };
+
+    private Path directory;
+    private Path raw;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tileloader");
+        raw = directory.resolve(SHEET + RawTiles.SUFFIX);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void convertsRawTileOfOtherEncoding() throws IOException {
+        RawTiles.write(tile(), raw, TileEncoding.INT16);
+        ElevationTile loaded = load(TileEncoding.PACKED);
+        assertEquals(TileEncoding.PACKED, RawTiles.encodingOf(loaded));
+        assertEquals(TileEncoding.PACKED, RawTiles.encodingOf(RawTiles.map(raw)));
+        assertEquals(123.4f, loaded.get(1, 1), 1e-4f);
+    }
+
+    @Test
+    public void quantizesFloatRawTile() throws IOException {
+        RawTiles.write(tile(), raw, TileEncoding.FLOAT32);
+        assertEquals(TileEncoding.INT16, RawTiles.encodingOf(load(TileEncoding.INT16)));
+    }
+
+    @Test
+    public void keepsQuantizedRawTileWithoutTiff() throws IOException {
+        RawTiles.write(tile(), raw, TileEncoding.INT16);
+        // Floats cannot be restored from decimetres
+        ElevationTile loaded = load(TileEncoding.FLOAT32);
+        assertTrue(loaded instanceof QuantizedTile);
+        assertEquals(TileEncoding.INT16, RawTiles.encodingOf(RawTiles.map(raw)));
+    }
+
+    private ElevationTile load(TileEncoding encoding) throws IOException {
+        TileLoader loader = new TileLoader(null, true, encoding, LISTENER);
+        try (LocalDirectorySource source = new LocalDirectorySource(directory)) {
+            return loader.load(source, SHEET);
+        }
+    }
+
+    private static ArrayTile tile() {
+        float[] data = new float[16 * 16];
+        for (int i = 0; i < data.length; i++)
+            data[i] = 100 + i * 0.1f;
+        data[17] = 123.4f;
+        return new ArrayTile(16, 16, 300000, 6700000, 2, 2, data);
+    }
+}
@@ -0,0 +1,124 @@
+package me.jsimomaa.osmosis.tile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import me.jsimomaa.osmosis.utils.TM35Utils;
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+public class TileSamplerTest {
+
+    private static final TM35Scale SCALE = TM35Scale.SCALE_10000;
+    private static final int SHEET = TM35Utils.sheetId(368000, 6678000, SCALE);
+    // North-west corner of the sheet
+    private static final double WEST = TM35Utils.minE(SHEET);
+    private static final double NORTH = TM35Utils.minN(SHEET) + SCALE.getSheetHeight();
+    private static final double CELL = 2;
+    private static final float DELTA = 1e-4f;
+
+    @Test
+    public void nearest() {
+        TileSampler sampler = new TileSampler(Interpolation.NEAREST, SCALE, id -> null);
+        assertEquals(plane(1, 2), sampler.sample(planeTile(), x(1.9), y(2.1)), DELTA);
+    }
+
+    @Test
+    public void bilinearReproducesPlane() {
+        TileSampler sampler = new TileSampler(Interpolation.BILINEAR, SCALE, id -> null);
+        assertEquals(plane(1.25 - 0.5, 2.75 - 0.5), sampler.sample(planeTile(), x(1.25), y(2.75)), DELTA);
+    }
+
+    @Test
+    public void bicubicReproducesPlane() {
+        TileSampler sampler = new TileSampler(Interpolation.BICUBIC, SCALE, id -> null);
+        assertEquals(plane(1.6 - 0.5, 1.8 - 0.5), sampler.sample(planeTile(), x(1.6), y(1.8)), DELTA);
+    }
+
+    @Test
+    public void noDataFallsBackToNearest() {
+        float[] data = planeData();
+        // Cell right of the sampled one is without data
+        data[1 * 4 + 2] = Float.NaN;
+        ArrayTile tile = new ArrayTile(4, 4, WEST, NORTH, CELL, CELL, data);
+
+        TileSampler bilinear = new TileSampler(Interpolation.BILINEAR, SCALE, id -> null);
+        assertEquals(plane(1, 1), bilinear.sample(tile, x(1.75), y(1.5)), DELTA);
+        TileSampler bicubic = new TileSampler(Interpolation.BICUBIC, SCALE, id -> null);
+        assertEquals(plane(1, 1), bicubic.sample(tile, x(1.75), y(1.5)), DELTA);
+    }
+
+    @Test
+    public void bicubicFallsBackToBilinear() {
+        float[] data = planeData();
+        // Outside of the 2x2 bilinear window but inside the 4x4 bicubic one
+        data[0] = Float.NaN;
+        ArrayTile tile = new ArrayTile(4, 4, WEST, NORTH, CELL, CELL, data);
+        TileSampler sampler = new TileSampler(Interpolation.BICUBIC, SCALE, id -> null);
+        assertEquals(plane(1.25 - 0.5, 1.75 - 0.5), sampler.sample(tile, x(1.25), y(1.75)), DELTA);
+    }
+
+    @Test
+    public void clampsToEdgeWithoutNeighbour() {
+        TileSampler sampler = new TileSampler(Interpolation.BILINEAR, SCALE, id -> null);
+        // A quarter cell inside the western edge - the missing column repeats
+        // column 0
+        assertEquals(plane(0, 1), sampler.sample(planeTile(), x(0.25), y(1.5)), DELTA);
+    }
+
+    @Test
+    public void readsAdjacentSheet() {
+        float[] west = new float[16];
+        Arrays.fill(west, 100);
+        ArrayTile westTile = new ArrayTile(4, 4, WEST - 4 * CELL, NORTH, CELL, CELL, west);
+        int westSheet = TM35Utils.sheetId(WEST - 1, NORTH - 1, SCALE);
+
+        TileSampler sampler = new TileSampler(Interpolation.BILINEAR, SCALE,
+                id -> id == westSheet && westTile.retain() ? westTile : null);
+        // Column -1 comes from the western sheet
+        assertEquals(100 + (plane(0, 1) - 100) * 0.75f, sampler.sample(planeTile(), x(0.25), y(1.5)), DELTA);
+        // Released after the sample
+        assertTrue(westTile.retain());
+        westTile.release();
+    }
+
+    @Test
+    public void outsideOfTile() {
+        TileSampler sampler = new TileSampler(Interpolation.BILINEAR, SCALE, id -> null);
+        assertTrue(Float.isNaN(sampler.sample(planeTile(), x(-1), y(1))));
+    }
+
+    private static float plane(double col, double row) {
+        return (float) (10 + col + 2 * row);
+    }
+
+    private static float[] planeData() {
+        float[] data = new float[16];
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++)
+                data[row * 4 + col] = plane(col, row);
+        }
+        return data;
+    }
+
+    private static ArrayTile planeTile() {
+        return new ArrayTile(4, 4, WEST, NORTH, CELL, CELL, planeData());
+    }
+
+    /**
+     * @return easting at the given column, in cells from the western edge
+     */
+    private static double x(double col) {
+        return WEST + col * CELL;
+    }
+
+    /**
+     * @return northing at the given row, in cells from the northern edge
+     */
+    private static double y(double row) {
+        return NORTH - row * CELL;
+    }
+}
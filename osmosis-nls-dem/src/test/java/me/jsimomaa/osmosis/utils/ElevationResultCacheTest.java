@@ -0,0 +1,179 @@
+package me.jsimomaa.osmosis.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ElevationResultCacheTest {
+
+    private static final long FINGERPRINT = 42;
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("resultcache");
+        file = directory.resolve("results.bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path f : (Iterable<Path>) files::iterator)
+                Files.delete(f);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void reopenKeepsResults() throws IOException {
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            assertEquals(ElevationResultCache.NOT_FOUND, cache.find(1, 60.1, 24.9));
+            cache.put(1, 60.1, 24.9, 385000.04, 6671000.06, 12.5f);
+        }
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            assertEquals(1, cache.size());
+            long slot = cache.find(1, 60.1, 24.9);
+            assertNotEquals(ElevationResultCache.NOT_FOUND, slot);
+            // Coordinates are kept in decimetres
+            assertEquals(385000.0, cache.x(slot), 1e-9);
+            assertEquals(6671000.1, cache.y(slot), 1e-9);
+            assertEquals(12.5f, cache.z(slot), 0f);
+            assertEquals(1, cache.getHits());
+        }
+    }
+
+    @Test
+    public void movedNodeIsNotFound() throws IOException {
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            cache.put(1, 60.1, 24.9, 385000, 6671000, 12.5f);
+            assertEquals(ElevationResultCache.NOT_FOUND, cache.find(1, 60.1000001, 24.9));
+            assertEquals(1, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void otherFingerprintStartsOver() throws IOException {
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            cache.put(1, 60.1, 24.9, 385000, 6671000, 12.5f);
+        }
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT + 1)) {
+            assertEquals(0, cache.size());
+            assertEquals(ElevationResultCache.NOT_FOUND, cache.find(1, 60.1, 24.9));
+        }
+    }
+
+    @Test
+    public void uncleanCloseStartsOver() throws IOException {
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            cache.put(1, 60.1, 24.9, 385000, 6671000, 12.5f);
+        }
+        // Flag of an open cache left behind by a crashed run
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 1), 36);
+        }
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() throws IOException {
+        int nodes = 100000;
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            for (int id = 0; id < nodes; id++)
+                cache.put(id, lat(id), 25, 385000, 6671000, id);
+        }
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            assertEquals(nodes, cache.size());
+            for (int id = 0; id < nodes; id++)
+                assertEquals(id, cache.z(cache.find(id, lat(id), 25)), 0f);
+        }
+    }
+
+    @Test
+    public void compactionDropsNodesNotSeen() throws IOException {
+        int nodes = 1000;
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            for (int id = 0; id < nodes; id++)
+                cache.put(id, lat(id), 25, 385000, 6671000, id);
+        }
+        // Half of the nodes were deleted from the input
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            for (int id = 0; id < nodes; id += 2)
+                assertNotEquals(ElevationResultCache.NOT_FOUND, cache.find(id, lat(id), 25));
+            cache.compact();
+            assertEquals(nodes / 2, cache.size());
+        }
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            assertEquals(nodes / 2, cache.size());
+            for (int id = 0; id < nodes; id++) {
+                long slot = cache.find(id, lat(id), 25);
+                if (id % 2 == 0)
+                    assertEquals(id, cache.z(slot), 0f);
+                else
+                    assertEquals(ElevationResultCache.NOT_FOUND, slot);
+            }
+        }
+    }
+
+    @Test
+    public void smallRunAgainstLargeCache() throws IOException {
+        int nodes = 10000;
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            for (int id = 0; id < nodes; id++)
+                cache.put(id, lat(id), 25, 385000, 6671000, id);
+        }
+        // A regional extract sees only some of the nodes - closing without
+        // compacting keeps the rest
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            for (int id = 0; id < 100; id++)
+                cache.find(id, lat(id), 25);
+        }
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            assertEquals(nodes, cache.size());
+            assertEquals(nodes - 1, cache.z(cache.find(nodes - 1, lat(nodes - 1), 25)), 0f);
+        }
+        // Compacting after a small run drops everything else
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            for (int id = 0; id < 100; id++)
+                cache.find(id, lat(id), 25);
+            cache.compact();
+            assertEquals(100, cache.size());
+        }
+    }
+
+    @Test
+    public void compactionKeepsFewStaleNodes() throws IOException {
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            for (int id = 0; id < 100; id++)
+                cache.put(id, lat(id), 25, 385000, 6671000, id);
+        }
+        try (ElevationResultCache cache = new ElevationResultCache(file, FINGERPRINT)) {
+            // Less than a quarter of the nodes is stale
+            for (int id = 0; id < 80; id++)
+                cache.find(id, lat(id), 25);
+            // Added nodes count as seen
+            cache.put(1000, 61, 25, 385000, 6671000, 1);
+            cache.compact();
+            assertEquals(101, cache.size());
+        }
+    }
+
+    private static double lat(int id) {
+        return 60 + id * 1e-5;
+    }
+}
@@ -0,0 +1,86 @@
+package me.jsimomaa.osmosis.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FeedCatalogTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("feed-catalog");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : Files.newDirectoryStream(directory))
+            Files.delete(file);
+        Files.delete(directory);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Map<String, String> paths = new HashMap<>();
+        paths.put("L4132E", "/korkeusmalli/hila_2m/etrs-tm35fin-n2000/L4/L41/L4132E.tif");
+        paths.put("L4132F", "/korkeusmalli/hila_2m/etrs-tm35fin-n2000/L4/L41/L4132F.tif");
+        Instant fetched = Instant.ofEpochMilli(1500000000000L);
+        Path file = directory.resolve("catalog.bin");
+        new FeedCatalog(paths, fetched, "\"abc\"", "Mon, 01 Jan 2018 00:00:00 GMT").write(file);
+
+        FeedCatalog read = FeedCatalog.read(file);
+        assertEquals(paths, read.getPaths());
+        assertEquals(fetched, read.getFetched());
+        assertEquals("\"abc\"", read.getEtag());
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", read.getLastModified());
+        assertTrue(read.hasValidators());
+        assertTrue(read.isOlderThan(Duration.ofDays(1)));
+        assertFalse(read.revalidated().isOlderThan(Duration.ofDays(1)));
+    }
+
+    @Test
+    public void withoutValidators() throws IOException {
+        Path file = directory.resolve("catalog.bin");
+        new FeedCatalog(new HashMap<>(), Instant.now(), null, null).write(file);
+
+        FeedCatalog read = FeedCatalog.read(file);
+        assertTrue(read.getPaths().isEmpty());
+        assertNull(read.getEtag());
+        assertNull(read.getLastModified());
+        assertFalse(read.hasValidators());
+    }
+
+    @Test
+    public void missingFile() throws IOException {
+        assertNull(FeedCatalog.read(directory.resolve("missing.bin")));
+    }
+
+    @Test
+    public void rejectsResultCache() throws IOException {
+        Path file = directory.resolve("results.bin");
+        try (ElevationResultCache cache = new ElevationResultCache(file, 42)) {
+            cache.put(1, 60.1, 24.9, 385000, 6672000, 12.5f);
+        }
+        try {
+            FeedCatalog.read(file);
+            fail("Read a result cache as a feed catalog");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package me.jsimomaa.osmosis.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+public class FeedPagingTest {
+
+    private static final String FEED = "https://example.org/feed/korkeusmalli_2m";
+
+    @Test
+    public void detectsPageParameter() throws Exception {
+        FeedPaging paging = FeedPaging.detect(URI.create(FEED + "?api_key=k&page=1"),
+                URI.create(FEED + "?api_key=k&page=2"));
+        assertNotNull(paging);
+        assertEquals(URI.create(FEED + "?api_key=k&page=2"), paging.page(0));
+        assertEquals(URI.create(FEED + "?api_key=k&page=5"), paging.page(3));
+        assertTrue(paging.isPage(URI.create(FEED + "?api_key=k&page=3"), 1));
+        assertFalse(paging.isPage(URI.create(FEED + "?api_key=k&page=4"), 1));
+    }
+
+    @Test
+    public void detectsOffsetStep() throws Exception {
+        FeedPaging paging = FeedPaging.detect(URI.create(FEED + "?start=0&count=50"),
+                URI.create(FEED + "?start=50&count=50"));
+        assertNotNull(paging);
+        assertEquals(URI.create(FEED + "?start=150&count=50"), paging.page(2));
+        // Links of the feed keep the paging parameter in place
+        assertTrue(paging.isPage(URI.create(FEED + "?start=100&count=50"), 1));
+    }
+
+    @Test
+    public void cursorIsNotAddressable() {
+        assertNull(FeedPaging.detect(URI.create(FEED + "?cursor=abc"), URI.create(FEED + "?cursor=def")));
+    }
+
+    @Test
+    public void moreThanOneChangeIsNotAddressable() {
+        assertNull(FeedPaging.detect(URI.create(FEED + "?page=1&token=a"), URI.create(FEED + "?page=2&token=b")));
+    }
+
+    @Test
+    public void otherResourceIsNotAddressable() {
+        assertNull(FeedPaging.detect(URI.create(FEED + "?page=1"), URI.create(FEED + "_other?page=2")));
+        assertNull(FeedPaging.detect(URI.create(FEED + "?page=2"), URI.create(FEED + "?page=1")));
+    }
+
+    @Test
+    public void firstPageWithoutParameter() {
+        // The first page has no page parameter at all
+        assertNull(FeedPaging.detect(URI.create(FEED + "?api_key=k"), URI.create(FEED + "?api_key=k&page=2")));
+    }
+}
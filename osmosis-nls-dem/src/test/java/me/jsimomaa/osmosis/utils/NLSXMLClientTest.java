@@ -0,0 +1,37 @@
+package me.jsimomaa.osmosis.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class NLSXMLClientTest {
+
+    @Test
+    public void contentRange() {
+        assertArrayEquals(new long[] { 100, 199, 200 }, NLSXMLClient.parseContentRange("bytes 100-199/200"));
+        assertArrayEquals(new long[] { 0, 0, 1 }, NLSXMLClient.parseContentRange("bytes 0-0/1"));
+    }
+
+    @Test
+    public void contentRangeOfUnknownLength() {
+        assertArrayEquals(new long[] { 100, 199, -1 }, NLSXMLClient.parseContentRange("bytes 100-199/*"));
+    }
+
+    @Test
+    public void unsatisfiedContentRange() {
+        // Sent with 416 Range Not Satisfiable
+        assertArrayEquals(new long[] { -1, -1, 200 }, NLSXMLClient.parseContentRange("bytes */200"));
+    }
+
+    @Test
+    public void invalidContentRange() {
+        assertNull(NLSXMLClient.parseContentRange(null));
+        assertNull(NLSXMLClient.parseContentRange(""));
+        assertNull(NLSXMLClient.parseContentRange("items 0-1/2"));
+        assertNull(NLSXMLClient.parseContentRange("bytes 100-199"));
+        assertNull(NLSXMLClient.parseContentRange("bytes 100/200"));
+        assertNull(NLSXMLClient.parseContentRange("bytes a-b/200"));
+        assertNull(NLSXMLClient.parseContentRange("bytes 100-199/x"));
+    }
+}
@@ -0,0 +1,66 @@
+package me.jsimomaa.osmosis.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReorderBufferTest {
+
+    @Test
+    public void releasesInSequence() {
+        ReorderBuffer<Long> buffer = new ReorderBuffer<>();
+        List<Long> out = new ArrayList<>();
+
+        buffer.put(2, 2L);
+        buffer.put(1, 1L);
+        buffer.drain(out::add);
+        assertEquals(0, out.size());
+        assertEquals(2, buffer.size());
+
+        buffer.put(0, 0L);
+        buffer.drain(out::add);
+        assertEquals(Arrays.asList(0L, 1L, 2L), out);
+        assertEquals(0, buffer.size());
+        assertEquals(3, buffer.getNext());
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        ReorderBuffer<Long> buffer = new ReorderBuffer<>();
+        List<Long> seqs = new ArrayList<>();
+        for (long seq = 0; seq < 10000; seq++)
+            seqs.add(seq);
+        Collections.shuffle(seqs, new Random(42));
+
+        List<Long> out = new ArrayList<>();
+        for (long seq : seqs) {
+            buffer.put(seq, seq);
+            buffer.drain(out::add);
+        }
+        assertEquals(10000, out.size());
+        for (int i = 0; i < out.size(); i++)
+            assertEquals(i, out.get(i).longValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReleasedSequence() {
+        ReorderBuffer<Long> buffer = new ReorderBuffer<>();
+        buffer.put(0, 0L);
+        buffer.drain(item -> {
+        });
+        buffer.put(0, 0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateSequence() {
+        ReorderBuffer<Long> buffer = new ReorderBuffer<>();
+        buffer.put(5, 5L);
+        buffer.put(5, 5L);
+    }
+}
@@ -0,0 +1,84 @@
+package me.jsimomaa.osmosis.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+public class SpatialOrderTest {
+
+    @Test
+    public void indexRoundTrips() {
+        int sheet = TM35Utils.sheetId(368000, 6678000, TM35Scale.SCALE_5000);
+        for (int index : new int[] { 0, 1, 12345, SpatialOrder.MAX_WINDOW - 1 }) {
+            assertEquals(index, SpatialOrder.index(SpatialOrder.key(sheet, 368000, 6678000, index)));
+            assertEquals(index, SpatialOrder.index(SpatialOrder.key(TM35Utils.NO_SHEET, Double.NaN, Double.NaN, index)));
+        }
+    }
+
+    @Test
+    public void groupsBySheet() {
+        Random random = new Random(1);
+        int count = 5000;
+        int[] sheets = new int[count];
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            // Coarse and fine sheets mixed, some points outside of the grid
+            TM35Scale scale = random.nextBoolean() ? TM35Scale.SCALE_10000 : TM35Scale.SCALE_5000;
+            double x = 300000 + random.nextDouble() * 30000;
+            double y = 6670000 + random.nextDouble() * 30000;
+            sheets[i] = random.nextInt(20) == 0 ? TM35Utils.NO_SHEET : TM35Utils.sheetId(x, y, scale);
+            keys[i] = SpatialOrder.key(sheets[i], x, y, i);
+        }
+        Arrays.sort(keys);
+
+        Set<Integer> done = new HashSet<>();
+        int previous = sheets[SpatialOrder.index(keys[0])];
+        for (long key : keys) {
+            int sheet = sheets[SpatialOrder.index(key)];
+            if (sheet != previous) {
+                assertTrue("Sheet " + sheet + " is split", done.add(previous));
+                previous = sheet;
+            }
+        }
+        assertTrue(done.add(previous));
+    }
+
+    @Test
+    public void followsCurveWithinSheet() {
+        TM35Scale scale = TM35Scale.SCALE_10000;
+        int sheet = TM35Utils.sheetId(368000, 6678000, scale);
+        double cell = scale.getSheetWidth() / 64.0;
+        long[] keys = new long[64 * 64];
+        for (int i = 0; i < keys.length; i++) {
+            // Center of each cell of the curve
+            double x = TM35Utils.minE(sheet) + (i % 64 + 0.5) * cell;
+            double y = TM35Utils.minN(sheet) + (i / 64 + 0.5) * cell;
+            keys[i] = SpatialOrder.key(sheet, x, y, i);
+        }
+        Arrays.sort(keys);
+
+        // Consecutive points are neighbouring cells
+        for (int k = 1; k < keys.length; k++) {
+            int a = SpatialOrder.index(keys[k - 1]);
+            int b = SpatialOrder.index(keys[k]);
+            assertEquals(1, Math.abs(a % 64 - b % 64) + Math.abs(a / 64 - b / 64));
+        }
+    }
+
+    @Test
+    public void clampsToSheet() {
+        int sheet = TM35Utils.sheetId(368000, 6678000, TM35Scale.SCALE_10000);
+        double minE = TM35Utils.minE(sheet);
+        double minN = TM35Utils.minN(sheet);
+        // On the western edge and a little outside of it share the cell
+        assertEquals(SpatialOrder.key(sheet, minE, minN, 0), SpatialOrder.key(sheet, minE - 1, minN - 1, 0));
+    }
+}
@@ -0,0 +1,79 @@
+package me.jsimomaa.osmosis.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import me.jsimomaa.osmosis.utils.TM35Utils.TM35Scale;
+
+public class TM35UtilsTest {
+
+    // Finland within EPSG:3067
+    private static final int FINLAND_MIN_E = 50000;
+    private static final int FINLAND_MAX_E = 760000;
+    private static final int FINLAND_MIN_N = 6600000;
+    private static final int FINLAND_MAX_N = 7800000;
+
+    @Test
+    public void sheetNameMatchesLibrary() {
+        assertEquals("L4132E1", TM35Utils.reverseGeocode(368000, 6678000, TM35Scale.SCALE_5000));
+        assertEquals("L4132E1", TM35Utils.sheetName(TM35Utils.sheetId(368000, 6678000, TM35Scale.SCALE_5000)));
+    }
+
+    @Test
+    public void arithmeticMatchesLibraryOverFinland() {
+        for (TM35Scale scale : TM35Scale.values())
+            assertEquals(scale.toString(), 0, mismatches(scale));
+    }
+
+    @Test
+    public void outsideOfGrid() {
+        assertEquals(TM35Utils.NO_SHEET, TM35Utils.sheetId(-100000, 6678000, TM35Scale.SCALE_10000));
+        assertEquals(TM35Utils.NO_SHEET, TM35Utils.sheetId(368000, 6000000, TM35Scale.SCALE_10000));
+    }
+
+    @Test
+    public void sheetsIntersecting() {
+        int sheet = TM35Utils.sheetId(368000, 6678000, TM35Scale.SCALE_10000);
+        double minE = TM35Utils.minE(sheet);
+        double minN = TM35Utils.minN(sheet);
+        int[] single = TM35Utils.sheetsIntersecting(minE + 1, minN + 1, minE + 2, minN + 2, TM35Scale.SCALE_10000);
+        assertEquals(1, single.length);
+        assertEquals(sheet, single[0]);
+
+        int[] four = TM35Utils.sheetsIntersecting(minE + 1, minN + 1, minE + 6001, minN + 6001,
+                TM35Scale.SCALE_10000);
+        assertEquals(4, four.length);
+        assertEquals(sheet, four[0]);
+        assertNotEquals(four[0], four[3]);
+    }
+
+    /**
+     * Probes every sheet at its center and 1 m inside each of its corners
+     *
+     * @return amount of probes where the arithmetic disagrees with
+     *         utm_karttalehti
+     */
+    private static int mismatches(TM35Scale scale) {
+        int mismatches = 0;
+        int w = scale.getSheetWidth();
+        int h = scale.getSheetHeight();
+        double[] probesE = new double[] { 1, w / 2.0, w - 1 };
+        double[] probesN = new double[] { 1, h / 2.0, h - 1 };
+        // Start from a sheet corner - the grid origin is at E -76000, N 6570000
+        for (int e = FINLAND_MIN_E - (FINLAND_MIN_E + 76000) % w; e < FINLAND_MAX_E; e += w) {
+            for (int n = FINLAND_MIN_N - (FINLAND_MIN_N - 6570000) % h; n < FINLAND_MAX_N; n += h) {
+                for (double pe : probesE) {
+                    for (double pn : probesN) {
+                        int id = TM35Utils.sheetId(e + pe, n + pn, scale);
+                        String expected = TM35Utils.reverseGeocode(e + pe, n + pn, scale);
+                        if (id == TM35Utils.NO_SHEET || !TM35Utils.sheetName(id).equals(expected))
+                            mismatches++;
+                    }
+                }
+            }
+        }
+        return mismatches;
+    }
+}